@@ -0,0 +1,101 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Kinematics of the pivot, elbow and wrist, which swing the gripper in a horizontal plane on top
+ * of the slider. Positions are in millimeters from the slider column, x toward the front of the
+ * arm's reach and y to the left; angles are in radians counter-clockwise from +x.
+ *
+ * A gripper pose is the center of a held stone plus the direction the wrist link points, which is
+ * the stone's orientation. With the orientation fixed the wrist joint position follows directly,
+ * and the pivot and elbow form a two-link chain to it, so the inverse solve is closed form.
+ */
+public class ArmKinematics {
+
+    // Servo travel over the full 0 - 1 range
+    static final double SERVO_RANGE = Math.toRadians(270);
+    // Servo positions at which each link points straight out along +x (pivot) or straight on
+    // from the previous link (elbow, wrist)
+    static final double PIVOT_ZERO = 0.16;
+    static final double ELBOW_ZERO = 0.40;
+    static final double WRIST_ZERO = 0.40;
+    // Pivot to elbow, elbow to wrist, and wrist to the far edge of a held stone
+    static final double PIVOT_LENGTH = 150;
+    static final double ELBOW_LENGTH = 120;
+    static final double WRIST_LENGTH = 110;
+    // Wrist to the center of a held stone
+    static final double GRIP_LENGTH = 70;
+
+    /**
+     * Finds where the gripper is for a set of servo positions
+     * @param pivot pivot servo position
+     * @param elbow elbow servo position
+     * @param wrist wrist servo position
+     * @param pose filled with x, y and orientation
+     */
+    public static void forward(double pivot, double elbow, double wrist, double[] pose) {
+        double a1 = (pivot - PIVOT_ZERO) * SERVO_RANGE;
+        double a2 = a1 + (elbow - ELBOW_ZERO) * SERVO_RANGE;
+        double a3 = a2 + (wrist - WRIST_ZERO) * SERVO_RANGE;
+        pose[0] = PIVOT_LENGTH * Math.cos(a1) + ELBOW_LENGTH * Math.cos(a2) + GRIP_LENGTH * Math.cos(a3);
+        pose[1] = PIVOT_LENGTH * Math.sin(a1) + ELBOW_LENGTH * Math.sin(a2) + GRIP_LENGTH * Math.sin(a3);
+        pose[2] = a3;
+    }
+
+    /**
+     * Finds servo positions that put the gripper at a pose. Most poses can be reached with the
+     * elbow bent either way; the one needing the least servo travel from the current positions
+     * is picked.
+     * @param x stone center x
+     * @param y stone center y
+     * @param orientation direction of the wrist link
+     * @param current pivot, elbow and wrist positions now, may be NaN if unknown
+     * @param servos filled with the pivot, elbow and wrist positions if a solution is found
+     * @return Returns false if the pose is out of reach or outside the servos' range
+     */
+    public static boolean inverse(double x, double y, double orientation, double[] current, double[] servos) {
+        double wx = x - GRIP_LENGTH * Math.cos(orientation);
+        double wy = y - GRIP_LENGTH * Math.sin(orientation);
+        double cosElbow = (wx * wx + wy * wy - PIVOT_LENGTH * PIVOT_LENGTH - ELBOW_LENGTH * ELBOW_LENGTH)
+                / (2 * PIVOT_LENGTH * ELBOW_LENGTH);
+        if (cosElbow < -1 || cosElbow > 1) {
+            return false;
+        }
+        double bestTravel = Double.POSITIVE_INFINITY;
+        for (int side = -1; side <= 1; side += 2) {
+            double a2 = side * Math.acos(cosElbow);
+            double a1 = Math.atan2(wy, wx)
+                    - Math.atan2(ELBOW_LENGTH * Math.sin(a2), PIVOT_LENGTH + ELBOW_LENGTH * Math.cos(a2));
+            double a3 = orientation - a1 - a2;
+            double pivot = toServo(PIVOT_ZERO, a1);
+            double elbow = toServo(ELBOW_ZERO, a2);
+            double wrist = toServo(WRIST_ZERO, a3);
+            if (Double.isNaN(pivot) || Double.isNaN(elbow) || Double.isNaN(wrist)) {
+                continue;
+            }
+            double travel = travel(current[0], pivot) + travel(current[1], elbow) + travel(current[2], wrist);
+            if (travel < bestTravel) {
+                bestTravel = travel;
+                servos[0] = pivot;
+                servos[1] = elbow;
+                servos[2] = wrist;
+            }
+        }
+        return bestTravel != Double.POSITIVE_INFINITY;
+    }
+
+    // Servo position for a joint angle, trying whole turns either way; NaN if out of range
+    private static double toServo(double zero, double angle) {
+        angle = Math.atan2(Math.sin(angle), Math.cos(angle));
+        for (int turn = -1; turn <= 1; turn++) {
+            double position = zero + (angle + turn * 2 * Math.PI) / SERVO_RANGE;
+            if (position >= 0 && position <= 1) {
+                return position;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double travel(double from, double to) {
+        return Double.isNaN(from) ? 0 : Math.abs(to - from);
+    }
+}
@@ -0,0 +1,180 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import org.firstinspires.ftc.teamcode.components.ArmSystem.ServoNames;
+
+/**
+ * Decides how much of an arm move the slider and the servos can do at the same time.
+ * The pivot, elbow and wrist swing the gripper in a horizontal plane on top of the slider, and
+ * parts of the chassis stick up into that plane until the slider has lifted it high enough.
+ * The planner models the arm as the planar chain in ArmKinematics and the chassis as keep-out
+ * boxes, then steps through a proposed move in time (servos sweeping at their ServoModel speeds
+ * while the slider follows its profile) to check that no part of the chain is ever inside a box
+ * it can't clear.
+ * Slider heights are in ticks above the bottom of travel.
+ */
+public class ArmPlanner {
+
+    // Points checked along each link
+    private static final int SAMPLES_PER_LINK = 3;
+
+    // Chassis parts that reach into the arm's plane: {xMin, xMax, yMin, yMax, clearance ticks}.
+    // These are rough measurements, keep them generous.
+    private static final double[][] KEEP_OUT = {
+            // Intake ramp across the back of the chassis
+            {-460, -290, -230, 230, 2 * 525},
+            // Expansion hub stack on the left side
+            {-260, -30, 70, 230, 2 * 525},
+    };
+
+    // Time step when simulating a move, in seconds
+    private static final double STEP = 0.02;
+
+    private final SliderController sliderController;
+    private final TrapezoidProfile scratchProfile = new TrapezoidProfile();
+    private final double[] from = new double[3];
+    private final double[] to = new double[3];
+    private final double[] next = new double[3];
+    private final double[] speed = {
+            ServoModel.getSpeed(ServoNames.PIVOT),
+            ServoModel.getSpeed(ServoNames.ELBOW),
+            ServoModel.getSpeed(ServoNames.WRIST)
+    };
+
+    public ArmPlanner(SliderController sliderController) {
+        this.sliderController = sliderController;
+    }
+
+    /**
+     * Checks a single arm pose against the chassis
+     * @param pivot pivot servo position
+     * @param elbow elbow servo position
+     * @param wrist wrist servo position
+     * @param height slider height in ticks above the bottom
+     * @return Returns true if no part of the arm is inside a box it is too low to clear
+     */
+    public boolean isClear(double pivot, double elbow, double wrist, double height) {
+        double angle = (pivot - ArmKinematics.PIVOT_ZERO) * ArmKinematics.SERVO_RANGE;
+        double x = 0;
+        double y = 0;
+        for (int link = 0; link < 3; link++) {
+            double length;
+            if (link == 0) {
+                length = ArmKinematics.PIVOT_LENGTH;
+            } else if (link == 1) {
+                angle += (elbow - ArmKinematics.ELBOW_ZERO) * ArmKinematics.SERVO_RANGE;
+                length = ArmKinematics.ELBOW_LENGTH;
+            } else {
+                angle += (wrist - ArmKinematics.WRIST_ZERO) * ArmKinematics.SERVO_RANGE;
+                length = ArmKinematics.WRIST_LENGTH;
+            }
+            double dx = Math.cos(angle) * length / SAMPLES_PER_LINK;
+            double dy = Math.sin(angle) * length / SAMPLES_PER_LINK;
+            for (int i = 0; i < SAMPLES_PER_LINK; i++) {
+                x += dx;
+                y += dy;
+                if (!isPointClear(x, y, height)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds how soon the servos can start moving toward a pose while the slider runs the move
+     * it is currently executing
+     * @param model servo state, used for where the servos are now
+     * @param target pivot, elbow and wrist targets
+     * @param bottom slider position in ticks at the bottom of travel
+     * @return Returns the delay in seconds, at most when the slider finishes; infinity if the
+     * servo positions aren't known or the sweep isn't clear even once the slider has stopped
+     */
+    public double earliestServoStart(ServoModel model, double[] target, int bottom) {
+        if (!loadSweep(model, target)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double sliderTime = sliderController.getRemainingTime();
+        for (double delay = 0; delay < sliderTime; delay += STEP) {
+            if (isSweepClear(delay, bottom, null, 0)) {
+                return delay;
+            }
+        }
+        // Also covers an idle slider, where the loop above never runs
+        if (isSweepClear(sliderTime, bottom, null, 0)) {
+            return sliderTime;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Checks whether the slider can start a new move now, while the servos finish sweeping to
+     * where they were last sent
+     * @param model servo state
+     * @param position current slider position in ticks
+     * @param targetPosition where the slider would go, in ticks
+     * @param bottom slider position in ticks at the bottom of travel
+     * @return Returns true if the rest of the sweep stays clear during the new slider move
+     */
+    public boolean canStartSlider(ServoModel model, int position, int targetPosition, int bottom) {
+        next[0] = model.getTarget(ServoNames.PIVOT);
+        next[1] = model.getTarget(ServoNames.ELBOW);
+        next[2] = model.getTarget(ServoNames.WRIST);
+        if (!loadSweep(model, next)) {
+            return model.isArmArrived();
+        }
+        scratchProfile.plan(position, targetPosition, SliderController.MAX_VELOCITY, SliderController.MAX_ACCELERATION);
+        return isSweepClear(0, bottom, scratchProfile, scratchProfile.getDuration());
+    }
+
+    // Fills from/to with the current servo estimates and the targets, false if any is unknown
+    private boolean loadSweep(ServoModel model, double[] target) {
+        from[0] = model.estimatePosition(ServoNames.PIVOT);
+        from[1] = model.estimatePosition(ServoNames.ELBOW);
+        from[2] = model.estimatePosition(ServoNames.WRIST);
+        for (int i = 0; i < 3; i++) {
+            if (Double.isNaN(from[i]) || Double.isNaN(target[i])) {
+                return false;
+            }
+            to[i] = target[i];
+        }
+        return true;
+    }
+
+    /**
+     * Steps through the servo sweep from "from" to "to" starting after delay seconds, checking it
+     * against the slider. The slider follows the given profile if there is one, otherwise the
+     * controller's current plan.
+     */
+    private boolean isSweepClear(double delay, int bottom, TrapezoidProfile profile, double profileDuration) {
+        double sweepTime = 0;
+        for (int i = 0; i < 3; i++) {
+            sweepTime = Math.max(sweepTime, Math.abs(to[i] - from[i]) / speed[i]);
+        }
+        double end = Math.max(delay + sweepTime, profile == null ? 0 : profileDuration);
+        for (double t = 0; t <= end + STEP; t += STEP) {
+            double moving = Math.max(0, t - delay);
+            double height = (profile == null
+                    ? sliderController.getPlannedPosition(t)
+                    : profile.getPosition(t)) - bottom;
+            if (!isClear(sweep(0, moving), sweep(1, moving), sweep(2, moving), height)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double sweep(int servo, double t) {
+        double distance = to[servo] - from[servo];
+        double moved = speed[servo] * t;
+        return Math.abs(distance) <= moved ? to[servo] : from[servo] + Math.signum(distance) * moved;
+    }
+
+    private static boolean isPointClear(double x, double y, double height) {
+        for (double[] box : KEEP_OUT) {
+            if (height < box[4] && x >= box[0] && x <= box[1] && y >= box[2] && y <= box[3]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -6,10 +6,7 @@ import com.qualcomm.robotcore.hardware.DcMotor;
 import  com.qualcomm.robotcore.hardware.Servo;
 import com.qualcomm.robotcore.util.Range;
 
-import org.firstinspires.ftc.robotcore.internal.system.Deadline;
-
 import java.util.EnumMap;
-import java.util.concurrent.TimeUnit;
 
 /*
     This class controls everything related to the arm, including driver assist features.
@@ -20,7 +17,7 @@ import java.util.concurrent.TimeUnit;
         - Elbow
         - Pivot
  */
-public class ArmSystem {
+public class ArmSystem implements Subsystem {
     public enum Position {
         // Double values ordered Pivot, elbow, wrist.
         POSITION_HOME(new double[] {0.96, 0.15, 0.79}, 0),
@@ -51,45 +48,61 @@ public class ArmSystem {
     public enum ServoNames {
         GRIPPER, WRIST, ELBOW, PIVOT
     }
+    // States of the arm sequences, see buildSequences. The SEQUENCE_ states are parents that
+    // group the states of one sequence.
     public enum ArmState {
-        STATE_CHECK_CLEARANCE,
-        STATE_CLEAR_CHASSIS,
-        STATE_ADJUST_ORIENTATION,
+        STATE_IDLE,
+        // Home or capstone: clear the chassis, rotate, then come down to the position's height
+        SEQUENCE_MOVE_IN,
+        STATE_IN_CLEAR_CHASSIS,
+        STATE_IN_ADJUST_ORIENTATION,
         STATE_SETTLE,
+        // Out to a position at the queued height
+        SEQUENCE_MOVE_OUT,
+        STATE_OUT_CLEAR_CHASSIS,
+        STATE_OUT_ADJUST_ORIENTATION,
         STATE_RAISE,
-        STATE_LOWER_HEIGHT,
-        STATE_DROP,
-        STATE_WAITING,
-        STATE_OPEN,
+        // Drop the block and lift half a block off the tower
+        SEQUENCE_PLACE,
         STATE_CLEAR_TOWER,
-        STATE_HOME,
-        STATE_INITIAL,
     }
     public enum ArmDirection {
         UP, DOWN, IDLE
     }
 
-    private ArmState mCurrentState;
+    private StateMachine<ArmState> armMachine;
+    // Position the running sequence is moving to
+    private Position mSequencePosition;
     private ArmDirection mDirection;
 
-    // Don't change this unless in calibrate() or init(), is read in the calculateHeight method
+    // Don't change this unless in calibrate() or init(), is read in the calculateHeight method.
+    // Also re-zeroed when the slider stalls on the bottom stop, see handleStall
     private int mCalibrationDistance;
+    // Set when the slider jams partway through a move, cleared by the next setSliderHeight or
+    // clearSliderStall. No sequence starts while it is set.
+    private boolean mSliderStalled;
 
     private EnumMap<ServoNames, Servo> servoEnumMap;
     private DcMotor slider;
+    private SliderController sliderController;
+    private ServoModel servoModel;
+    private ArmPlanner armPlanner;
+    // When the servos may start their part of the current sequence, see scheduleServos
+    private long mServoStartNanos;
+    private boolean mServosCommanded;
+    // Scratch for moveToPose
+    private final double[] mCurrentServos = new double[3];
+    private final double[] mPoseServos = new double[3];
 
     // This is in block positions, not ticks
     public double mTargetHeight;
     // The queued position
     private double mQueuePos;
-    // This variable is used for all the auto methods.
-    private Deadline mWaiting;
 
     private final int MAX_HEIGHT = 6;
     private final int INCREMENT_HEIGHT = 525; // how much the ticks increase when a block is added
     private final double GRIPPER_OPEN = 0.9;
     private final double GRIPPER_CLOSE = 0.3;
-    private final int WAIT_TIME = 400;
 
     public static final String TAG = "ArmSystem"; // for debugging
 
@@ -106,16 +119,74 @@ public class ArmSystem {
      */
     public ArmSystem(EnumMap<ServoNames, Servo> servos, DcMotor slider) {
         servoEnumMap = servos;
+        servoModel = new ServoModel(servos);
         this.slider = slider;
         this.mCalibrationDistance = slider.getCurrentPosition();
         this.slider.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
         this.slider.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
-        mWaiting = new Deadline(WAIT_TIME, TimeUnit.MILLISECONDS);
+        sliderController = new SliderController();
+        armPlanner = new ArmPlanner(sliderController);
         mTargetHeight = 0;
         setSliderHeight(mTargetHeight);
         movePresetPosition(Position.POSITION_HOME);
-        mCurrentState = ArmState.STATE_CHECK_CLEARANCE;
         openGripper();
+        armMachine = new StateMachine<>(ArmState.class, TAG);
+        buildSequences();
+        armMachine.start(ArmState.STATE_IDLE);
+    }
+
+    private void buildSequences() {
+        armMachine.state(ArmState.SEQUENCE_MOVE_IN)
+                .initial(ArmState.STATE_IN_CLEAR_CHASSIS)
+                .transition(this::isSliderStalled, ArmState.STATE_IDLE);
+        armMachine.state(ArmState.STATE_IN_CLEAR_CHASSIS)
+                .parent(ArmState.SEQUENCE_MOVE_IN)
+                .onEnter(() -> {
+                    ensureIsAboveChassis();
+                    scheduleServos(mSequencePosition);
+                })
+                .transition(() -> runSliderAndServos(mSequencePosition), ArmState.STATE_IN_ADJUST_ORIENTATION);
+        armMachine.state(ArmState.STATE_IN_ADJUST_ORIENTATION)
+                .parent(ArmState.SEQUENCE_MOVE_IN)
+                // Start down as soon as the rest of the servo sweep is clear of the chassis
+                .transition(() -> canDescend(mSequencePosition.getHeight()), ArmState.STATE_SETTLE);
+        armMachine.state(ArmState.STATE_SETTLE)
+                .parent(ArmState.SEQUENCE_MOVE_IN)
+                .onEnter(() -> {
+                    openGripper();
+                    setSliderHeight(mSequencePosition.getHeight());
+                })
+                .transition(() -> runSliderToTarget() && servoModel.isArmArrived(), ArmState.STATE_IDLE);
+
+        armMachine.state(ArmState.SEQUENCE_MOVE_OUT)
+                .initial(ArmState.STATE_OUT_CLEAR_CHASSIS)
+                .transition(this::isSliderStalled, ArmState.STATE_IDLE);
+        armMachine.state(ArmState.STATE_OUT_CLEAR_CHASSIS)
+                .parent(ArmState.SEQUENCE_MOVE_OUT)
+                .onEnter(() -> {
+                    setSliderHeight(Math.max(2, mQueuePos));
+                    scheduleServos(mSequencePosition);
+                })
+                .transition(() -> runSliderAndServos(mSequencePosition), ArmState.STATE_OUT_ADJUST_ORIENTATION);
+        armMachine.state(ArmState.STATE_OUT_ADJUST_ORIENTATION)
+                .parent(ArmState.SEQUENCE_MOVE_OUT)
+                .transition(() -> canDescend(mQueuePos), ArmState.STATE_RAISE);
+        armMachine.state(ArmState.STATE_RAISE)
+                .parent(ArmState.SEQUENCE_MOVE_OUT)
+                .onEnter(() -> setSliderHeight(mQueuePos))
+                .transition(() -> runSliderToTarget() && servoModel.isArmArrived(), ArmState.STATE_IDLE,
+                        this::incrementQueue);
+
+        armMachine.state(ArmState.SEQUENCE_PLACE)
+                .initial(ArmState.STATE_CLEAR_TOWER)
+                .transition(this::isSliderStalled, ArmState.STATE_IDLE);
+        armMachine.state(ArmState.STATE_CLEAR_TOWER)
+                .parent(ArmState.SEQUENCE_PLACE)
+                .onEnter(() -> {
+                    openGripper();
+                    setSliderHeight(mTargetHeight + 0.5);
+                })
+                .transition(this::runSliderToTarget, ArmState.STATE_IDLE);
     }
 
     // Go to "west" position
@@ -137,73 +208,100 @@ public class ArmSystem {
     }
 
     // Go to capstone position
+    // Call every loop until it returns true, or use startMoveToCapstone and updateSequence
     public boolean moveToCapstone() {
-        return moveInToPosition(Position.POSITION_CAPSTONE);
-    }
-
-    // Helper method for going to capstone or home
-    private boolean moveInToPosition(Position position) {
-        switch(mCurrentState) {
-            case STATE_CHECK_CLEARANCE:
-                ensureIsAboveChassis();
-                break;
-            case STATE_CLEAR_CHASSIS:
-                if (runSliderToTarget()) {
-                    movePresetPosition(position);
-                    mWaiting.reset();
-                    mCurrentState = ArmState.STATE_ADJUST_ORIENTATION;
-                }
-                break;
-            case STATE_ADJUST_ORIENTATION:
-                if(mWaiting.hasExpired()) {
-                    openGripper();
-                    setSliderHeight(position.getHeight());
-                    mCurrentState = ArmState.STATE_SETTLE;
-                }
-                break;
-            case STATE_SETTLE:
-                if (runSliderToTarget()) {
-                    mCurrentState = ArmState.STATE_CHECK_CLEARANCE;
-                    return true;
-                }
-                break;
-        }
-        return false;
+        startMoveToCapstone();
+        return updateSequence();
+    }
+
+    public void startMoveToCapstone() {
+        startSequence(ArmState.SEQUENCE_MOVE_IN, Position.POSITION_CAPSTONE);
     }
 
     // Auto method for moving out to the queued height and given position
     public boolean moveOutToPosition(Position position) {
-        switch(mCurrentState) {
-            case STATE_CHECK_CLEARANCE:
-                if (mQueuePos < 2) {
-                    setSliderHeight(2);
-                } else {
-                    setSliderHeight(mQueuePos);
-                }
-                mCurrentState = ArmState.STATE_CLEAR_CHASSIS;
-            case STATE_CLEAR_CHASSIS:
-                if (runSliderToTarget()) {
-                    movePresetPosition(position);
-                    mWaiting.reset();
-                    mCurrentState = ArmState.STATE_ADJUST_ORIENTATION;
-                }
-                break;
-            case STATE_ADJUST_ORIENTATION:
-                if(mWaiting.hasExpired()) {
-                    setSliderHeight(mQueuePos);
-                    mCurrentState = ArmState.STATE_RAISE;
-                }
-                break;
-            case STATE_RAISE:
-                if (runSliderToTarget()) {
-                    Log.d(TAG, "Run");
-                    incrementQueue();
-                    mCurrentState = ArmState.STATE_CHECK_CLEARANCE;
-                    return true;
-                }
-                break;
+        startMoveOut(position);
+        return updateSequence();
+    }
+
+    public void startMoveOut(Position position) {
+        startSequence(ArmState.SEQUENCE_MOVE_OUT, position);
+    }
+
+    // Starts a sequence unless it is already running, pre-empting any other sequence. Refused
+    // while the slider is stalled, so a retry doesn't drive straight back into the jam.
+    private void startSequence(ArmState sequence, Position position) {
+        if (mSliderStalled) {
+            return;
         }
-        return false;
+        if (!armMachine.isIn(sequence) || mSequencePosition != position) {
+            mSequencePosition = position;
+            armMachine.start(sequence);
+        }
+    }
+
+    /**
+     * Advances the running sequence, or just runs the slider if there isn't one.
+     * Must be called every loop instead of runSliderToTarget.
+     * @return Returns true once no sequence is running, false while one is or if the last one
+     * was aborted by the slider stalling (see isSliderStalled)
+     */
+    public boolean updateSequence() {
+        if (armMachine.isIn(ArmState.STATE_IDLE)) {
+            runSliderToTarget();
+            return !mSliderStalled;
+        }
+        armMachine.update();
+        return armMachine.isIn(ArmState.STATE_IDLE) && !mSliderStalled;
+    }
+
+    // Stops the running sequence where it is; the slider still finishes its current move
+    public void cancelSequence() {
+        if (!armMachine.isIn(ArmState.STATE_IDLE)) {
+            armMachine.start(ArmState.STATE_IDLE);
+        }
+    }
+
+    public ArmState getSequenceState() {
+        return armMachine.getState();
+    }
+
+    // Logs how long each sequence and each of its steps has been taking
+    public void logSequenceTimings() {
+        armMachine.logTimings();
+    }
+
+    // True once the rest of the servo sweep is clear of the chassis with the slider moving to
+    // the given height, or the servos have arrived
+    private boolean canDescend(double height) {
+        return servoModel.isArmArrived() || armPlanner.canStartSlider(servoModel,
+                slider.getCurrentPosition(), calculateHeight(height), mCalibrationDistance);
+    }
+
+    // Works out how early the servos can start rotating while the slider clears the chassis.
+    // Must be called right after the slider has been given its clearance height.
+    private void scheduleServos(Position position) {
+        double delay = armPlanner.earliestServoStart(servoModel, position.getPos(), mCalibrationDistance);
+        if (Double.isInfinite(delay)) {
+            // No safe overlap, or the servos' positions are unknown: wait for the slider to arrive
+            Log.w(TAG, "No clear servo sweep to " + position + ", waiting for the slider");
+            mServoStartNanos = Long.MAX_VALUE;
+        } else {
+            Log.d(TAG, "Servos start after " + delay + " s");
+            mServoStartNanos = System.nanoTime() + (long) (delay * 1e9);
+        }
+        mServosCommanded = false;
+    }
+
+    // Runs the slider and starts the servos when scheduled, true once the slider has arrived
+    // and the servos are on their way
+    private boolean runSliderAndServos(Position position) {
+        boolean sliderArrived = runSliderToTarget();
+        if (!mServosCommanded && (sliderArrived || System.nanoTime() >= mServoStartNanos)) {
+            movePresetPosition(position);
+            mServosCommanded = true;
+        }
+        return sliderArrived && mServosCommanded;
     }
 
     // Makes sure that the arm is above height 2 in order to clear the chassis
@@ -211,24 +309,28 @@ public class ArmSystem {
         if (getSliderPos() < calculateHeight(2)) {
             setSliderHeight(2);
         } else {
-            slider.setTargetPosition(slider.getCurrentPosition());
+            holdSlider(slider.getCurrentPosition());
         }
-        mCurrentState = ArmState.STATE_CLEAR_CHASSIS;
     }
 
     // Go to the home position
     // Moves the slider up to one block high, moves the gripper to the home position, and then moves
     // back down so we can fit under the bridge.
     public boolean moveToHome() {
-        return moveInToPosition(Position.POSITION_HOME);
+        startMoveToHome();
+        return updateSequence();
+    }
+
+    public void startMoveToHome() {
+        startSequence(ArmState.SEQUENCE_MOVE_IN, Position.POSITION_HOME);
     }
 
     public void openGripper() {
-        servoEnumMap.get(ServoNames.GRIPPER).setPosition(GRIPPER_OPEN);
+        servoModel.setPosition(ServoNames.GRIPPER, GRIPPER_OPEN);
     }
 
     public void closeGripper() {
-        servoEnumMap.get(ServoNames.GRIPPER).setPosition(GRIPPER_CLOSE);
+        servoModel.setPosition(ServoNames.GRIPPER, GRIPPER_CLOSE);
     }
 
     public void toggleGripper() {
@@ -241,15 +343,52 @@ public class ArmSystem {
 
     private void movePresetPosition(Position pos){
         double[] posArray = pos.getPos();
-        servoEnumMap.get(ServoNames.PIVOT).setPosition(posArray[0]);
-        servoEnumMap.get(ServoNames.ELBOW).setPosition(posArray[1]);
-        servoEnumMap.get(ServoNames.WRIST).setPosition(posArray[2]);
+        servoModel.setPosition(ServoNames.PIVOT, posArray[0]);
+        servoModel.setPosition(ServoNames.ELBOW, posArray[1]);
+        servoModel.setPosition(ServoNames.WRIST, posArray[2]);
+    }
+
+    /**
+     * Moves the gripper to a pose in the arm's plane, see ArmKinematics for the frame
+     * @param x stone center in mm
+     * @param y stone center in mm
+     * @param orientation stone orientation in radians
+     * @return Returns false, without moving, if the pose is out of reach or the arm would hit
+     * the chassis getting there at the current slider height
+     */
+    public boolean moveToPose(double x, double y, double orientation) {
+        mCurrentServos[0] = servoModel.estimatePosition(ServoNames.PIVOT);
+        mCurrentServos[1] = servoModel.estimatePosition(ServoNames.ELBOW);
+        mCurrentServos[2] = servoModel.estimatePosition(ServoNames.WRIST);
+        if (!ArmKinematics.inverse(x, y, orientation, mCurrentServos, mPoseServos)
+                || armPlanner.earliestServoStart(servoModel, mPoseServos, mCalibrationDistance) != 0) {
+            return false;
+        }
+        servoModel.setPosition(ServoNames.PIVOT, mPoseServos[0]);
+        servoModel.setPosition(ServoNames.ELBOW, mPoseServos[1]);
+        servoModel.setPosition(ServoNames.WRIST, mPoseServos[2]);
+        return true;
+    }
+
+    /**
+     * Gets where the gripper was last sent
+     * @param pose filled with x, y and orientation, NaN before the arm has been moved
+     */
+    public void getPose(double[] pose) {
+        ArmKinematics.forward(servoModel.getTarget(ServoNames.PIVOT), servoModel.getTarget(ServoNames.ELBOW),
+                servoModel.getTarget(ServoNames.WRIST), pose);
+    }
+
+    // True once the pivot, elbow and wrist should have finished their last move
+    public boolean isArmArrived() {
+        return servoModel.isArmArrived();
     }
 
     // Pos should be the # of blocks high it should be
     // MUST BE CALLED before runSliderToTarget
     public void setSliderHeight(double pos) {
         mTargetHeight = Range.clip(pos, 0, MAX_HEIGHT);
+        mSliderStalled = false;
         setPosTarget();
         if (slider.getCurrentPosition() == calculateHeight(mTargetHeight)) {
             mDirection = ArmDirection.IDLE;
@@ -259,7 +398,8 @@ public class ArmSystem {
         } else {
             mDirection = ArmDirection.UP;
         }
-        slider.setMode(DcMotor.RunMode.RUN_USING_ENCODER);
+        sliderController.start(slider.getCurrentPosition(), calculateHeight(mTargetHeight));
+        slider.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
     }
 
     public void setSliderHeight(int pos) {
@@ -283,23 +423,55 @@ public class ArmSystem {
         Log.d(TAG, "Target Pos" + slider.getTargetPosition());
         if (mDirection == ArmDirection.IDLE) {
             return true;
-        } else {
-            slider.setMode(DcMotor.RunMode.RUN_USING_ENCODER);
         }
 
-        if (mDirection == ArmDirection.UP && slider.getCurrentPosition() <  slider.getTargetPosition()){
-            slider.setPower(1.0);
-        } else if (mDirection == ArmDirection.DOWN && slider.getCurrentPosition() > slider.getTargetPosition()) {
-            slider.setPower(-1.0);
-        } else {
-            mDirection = ArmDirection.IDLE;
-            slider.setTargetPosition(slider.getCurrentPosition());
-            slider.setMode(DcMotor.RunMode.RUN_TO_POSITION);
+        slider.setPower(sliderController.update(slider.getCurrentPosition()));
+        if (sliderController.isStalled()) {
+            handleStall();
+            return !mSliderStalled;
+        }
+        if (sliderController.isArrived()) {
+            holdSlider(calculateHeight(mTargetHeight));
             return true;
         }
         return false;
     }
 
+    // Stops pushing against whatever the slider is stuck on. Stalling on the way down to the bottom,
+    // within a block of where the bottom should be, means it is sitting on the bottom stop and the
+    // encoder has drifted, so the bottom is re-zeroed there and the move counts as finished.
+    private void handleStall() {
+        int position = slider.getCurrentPosition();
+        if (mDirection == ArmDirection.DOWN && mTargetHeight == 0
+                && Math.abs(position - mCalibrationDistance) < INCREMENT_HEIGHT) {
+            Log.d(TAG, "Slider on bottom stop, re-zeroing from " + mCalibrationDistance + " to " + position);
+            mCalibrationDistance = position;
+        } else {
+            Log.w(TAG, "Slider stalled at " + position + " going " + mDirection);
+            mSliderStalled = true;
+        }
+        holdSlider(position);
+    }
+
+    // True if the slider jammed during its last move; running sequences are aborted and new
+    // ones refused until the stall is cleared
+    public boolean isSliderStalled() {
+        return mSliderStalled;
+    }
+
+    // Lets sequences start again once whatever jammed the slider has been dealt with
+    public void clearSliderStall() {
+        mSliderStalled = false;
+    }
+
+    // Lets the motor controller hold the slider at a position
+    private void holdSlider(int position) {
+        mDirection = ArmDirection.IDLE;
+        slider.setTargetPosition(position);
+        slider.setMode(DcMotor.RunMode.RUN_TO_POSITION);
+        slider.setPower(1.0);
+    }
+
     public int getSliderPos() {
         return slider.getCurrentPosition();
     }
@@ -328,34 +500,15 @@ public class ArmSystem {
     }
 
 
+    // Call every loop after startPlacing until it returns true
     public boolean place() {
-        switch(mCurrentState) {
-            // Drops the block
-            case STATE_DROP:
-                Log.d(TAG, "started drop");
-                openGripper();
-                setSliderHeight(mTargetHeight + 0.5);
-                mCurrentState = ArmState.STATE_CLEAR_TOWER;
-                Log.d(TAG, "start waiting");
-                break;
-            // Raises up a half-block
-            case STATE_CLEAR_TOWER:
-                if (runSliderToTarget()) {
-                    Log.d(TAG, "tower cleared");
-                    mCurrentState = ArmState.STATE_INITIAL;
-                    return true;
-                }
-                break;
-        }
-        return false;
-    }
-
-    public void changePlaceState(ArmState state) {
-        mCurrentState = state;
+        return updateSequence();
     }
 
     public void startPlacing() {
-        mCurrentState = ArmState.STATE_DROP;
+        if (!mSliderStalled) {
+            armMachine.start(ArmState.SEQUENCE_PLACE);
+        }
     }
 
     private boolean areRoughlyEqual(int a, int b) {
@@ -0,0 +1,96 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.hardware.NormalizedColorSensor;
+import com.qualcomm.robotcore.hardware.NormalizedRGBA;
+
+/**
+ * Reads every channel of the color sensor in a single bus transaction per cycle and classifies
+ * whether the sensor is over alliance tape.
+ */
+public class ColorSystem {
+
+    public enum Tape {
+        RED, BLUE
+    }
+
+    // Ratio of the tape channel to the opposing channel needed to enter and to stay on the tape.
+    // The gap between them keeps readings at the edge of the tape from flickering.
+    private static final double ENTER_RATIO = 1.25;
+    private static final double EXIT_RATIO = 1.1;
+
+    private final NormalizedColorSensor colorSensor;
+    private Tape mTape;
+
+    // Channels from the last update, normalized so red + green + blue = 1
+    private double mRed;
+    private double mGreen;
+    private double mBlue;
+    private double mAlpha;
+
+    private boolean mOnTape;
+    private long mDetectedNanos;
+
+    public ColorSystem(NormalizedColorSensor colorSensor, Tape tape) {
+        this.colorSensor = colorSensor;
+        mTape = tape;
+    }
+
+    /**
+     * Reads the sensor and advances the tape classifier. Must be called once per loop,
+     * every other getter works off the values read here.
+     * @return Returns true if the sensor is over the tape
+     */
+    public boolean update() {
+        NormalizedRGBA colors = colorSensor.getNormalizedColors();
+        double sum = colors.red + colors.green + colors.blue;
+        if (sum > 0) {
+            mRed = colors.red / sum;
+            mGreen = colors.green / sum;
+            mBlue = colors.blue / sum;
+        }
+        mAlpha = colors.alpha;
+
+        double tape = mTape == Tape.RED ? mRed : mBlue;
+        double other = mTape == Tape.RED ? mBlue : mRed;
+        if (!mOnTape && tape > other * ENTER_RATIO) {
+            mOnTape = true;
+            mDetectedNanos = System.nanoTime();
+        } else if (mOnTape && tape < other * EXIT_RATIO) {
+            mOnTape = false;
+        }
+        return mOnTape;
+    }
+
+    public void setTape(Tape tape) {
+        mTape = tape;
+        mOnTape = false;
+    }
+
+    public boolean isOnTape() {
+        return mOnTape;
+    }
+
+    /**
+     * Gets when the tape was last detected
+     * @return Returns the System.nanoTime() of the update that first saw the tape
+     */
+    public long getDetectedNanos() {
+        return mDetectedNanos;
+    }
+
+    public double getRed() {
+        return mRed;
+    }
+
+    public double getGreen() {
+        return mGreen;
+    }
+
+    public double getBlue() {
+        return mBlue;
+    }
+
+    public double getAlpha() {
+        return mAlpha;
+    }
+}
@@ -0,0 +1,77 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Something the robot does over one or more loops, run by a CommandScheduler. A command
+ * declares the subsystems it drives; scheduling it interrupts whatever commands were
+ * driving them.
+ */
+public abstract class Command {
+
+    public interface Action {
+        void run();
+    }
+
+    private final Subsystem[] requirements;
+    // Set by the scheduler while the command is running
+    boolean mScheduled;
+
+    protected Command(Subsystem... requirements) {
+        this.requirements = requirements;
+    }
+
+    public Subsystem[] getRequirements() {
+        return requirements;
+    }
+
+    public boolean isScheduled() {
+        return mScheduled;
+    }
+
+    // Called once when the command is scheduled
+    public void initialize() {
+    }
+
+    // Called every loop while the command is running
+    public void execute() {
+    }
+
+    public boolean isFinished() {
+        return false;
+    }
+
+    /**
+     * Called once when the command stops
+     * @param interrupted true if it was cancelled or another command took over a subsystem
+     */
+    public void end(boolean interrupted) {
+    }
+
+    /**
+     * Makes a command that runs an action once and finishes
+     */
+    public static Command instant(Action action, Subsystem... requirements) {
+        return new Command(requirements) {
+            @Override
+            public void initialize() {
+                action.run();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Makes a command that runs an action every loop until it is interrupted
+     */
+    public static Command run(Action action, Subsystem... requirements) {
+        return new Command(requirements) {
+            @Override
+            public void execute() {
+                action.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs commands and makes sure each subsystem is driven by one command at a time. Buttons are
+ * bound to commands once, in init; after that each loop polls the bindings and runs only the
+ * commands that are active. When a command is scheduled it interrupts any command using one
+ * of the same subsystems, and a subsystem left free falls back to its default command.
+ *
+ * Nothing is allocated in run(), so it is safe to call every loop.
+ */
+public class CommandScheduler {
+
+    private enum BindingType {
+        // Schedule when the button goes down
+        PRESSED,
+        // Schedule when the button goes down, cancel when it comes up
+        HELD,
+        // Schedule on one press, cancel on the next
+        TOGGLE
+    }
+
+    private static class Binding {
+        final BooleanSupplier button;
+        final Command command;
+        final BindingType type;
+        boolean mWasDown;
+
+        Binding(BooleanSupplier button, Command command, BindingType type) {
+            this.button = button;
+            this.command = command;
+            this.type = type;
+        }
+    }
+
+    private final ArrayList<Binding> bindings = new ArrayList<>();
+    private final ArrayList<Command> active = new ArrayList<>();
+    private final HashMap<Subsystem, Command> owners = new HashMap<>();
+    private final HashMap<Subsystem, Command> defaults = new HashMap<>();
+    private final ArrayList<Subsystem> subsystems = new ArrayList<>();
+
+    /**
+     * Adds a subsystem, optionally with a command to run whenever nothing else is using it
+     * @param defaultCommand must require the subsystem; may be null
+     */
+    public void register(Subsystem subsystem, Command defaultCommand) {
+        subsystems.add(subsystem);
+        if (defaultCommand != null) {
+            defaults.put(subsystem, defaultCommand);
+        }
+    }
+
+    public void whenPressed(BooleanSupplier button, Command command) {
+        bindings.add(new Binding(button, command, BindingType.PRESSED));
+    }
+
+    public void whileHeld(BooleanSupplier button, Command command) {
+        bindings.add(new Binding(button, command, BindingType.HELD));
+    }
+
+    public void toggleWhenPressed(BooleanSupplier button, Command command) {
+        bindings.add(new Binding(button, command, BindingType.TOGGLE));
+    }
+
+    /**
+     * Starts a command, interrupting whatever is using its subsystems. Does nothing if it is
+     * already running.
+     */
+    public void schedule(Command command) {
+        if (command.mScheduled) {
+            return;
+        }
+        for (Subsystem subsystem : command.getRequirements()) {
+            Command owner = owners.get(subsystem);
+            if (owner != null) {
+                cancel(owner);
+            }
+        }
+        for (Subsystem subsystem : command.getRequirements()) {
+            owners.put(subsystem, command);
+        }
+        command.mScheduled = true;
+        active.add(command);
+        command.initialize();
+    }
+
+    /**
+     * Stops a running command, calling its end(true)
+     */
+    public void cancel(Command command) {
+        if (command.mScheduled) {
+            finish(command, true);
+        }
+    }
+
+    public void cancelAll() {
+        while (!active.isEmpty()) {
+            finish(active.get(active.size() - 1), true);
+        }
+    }
+
+    /**
+     * Polls the button bindings, then runs every active command once, finishing the ones that
+     * are done. Call once per loop.
+     */
+    public void run() {
+        for (int i = 0; i < bindings.size(); i++) {
+            Binding binding = bindings.get(i);
+            boolean down = binding.button.getAsBoolean();
+            if (down && !binding.mWasDown) {
+                if (binding.type == BindingType.TOGGLE && binding.command.mScheduled) {
+                    cancel(binding.command);
+                } else {
+                    schedule(binding.command);
+                }
+            } else if (!down && binding.mWasDown && binding.type == BindingType.HELD) {
+                cancel(binding.command);
+            }
+            binding.mWasDown = down;
+        }
+
+        for (int i = 0; i < subsystems.size(); i++) {
+            Subsystem subsystem = subsystems.get(i);
+            Command defaultCommand = defaults.get(subsystem);
+            if (defaultCommand != null && owners.get(subsystem) == null) {
+                schedule(defaultCommand);
+            }
+        }
+
+        // Commands finishing shift the list down, so only advance when this one keeps running
+        int i = 0;
+        while (i < active.size()) {
+            Command command = active.get(i);
+            command.execute();
+            if (command.isFinished()) {
+                finish(command, false);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void finish(Command command, boolean interrupted) {
+        active.remove(command);
+        command.mScheduled = false;
+        for (Subsystem subsystem : command.getRequirements()) {
+            if (owners.get(subsystem) == command) {
+                owners.remove(subsystem);
+            }
+        }
+        command.end(interrupted);
+    }
+}
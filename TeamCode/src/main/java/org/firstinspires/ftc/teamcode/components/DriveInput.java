@@ -0,0 +1,125 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Turns raw joystick values into drive commands: deadband and response curve from a lookup
+ * table, a limit on how fast each axis can ramp up, and optionally field-centric translation.
+ * Call update() once per loop and pass the results to DriveSystem.drive. Nothing is allocated
+ * after construction.
+ */
+public class DriveInput {
+
+    // Stick travel ignored around center
+    private static final double DEADBAND = 0.05;
+    // Response curve: cubic, like the drivers are used to, sampled over the stick travel left
+    // after the deadband
+    private static final int CURVE_STEPS = 64;
+    private static final double[] CURVE = new double[CURVE_STEPS + 1];
+    static {
+        for (int i = 0; i <= CURVE_STEPS; i++) {
+            double x = (double) i / CURVE_STEPS;
+            CURVE[i] = x * x * x;
+        }
+    }
+
+    // Fastest each axis may ramp up, and back down toward zero, in full scale per second.
+    // Ramping up limits the current spikes that brown out the hub; stopping is allowed to be quicker.
+    private static final double TRANSLATE_RISE = 4.0;
+    private static final double TURN_RISE = 6.0;
+    private static final double FALL = 10.0;
+
+    private boolean mFieldCentric;
+    private long mLastNanos;
+
+    // Outputs from the last update
+    private double mTurn;
+    private double mStrafe;
+    private double mForward;
+
+    /**
+     * Drive relative to the field instead of the robot: pushing the stick away from the driver
+     * always drives away from the driver, whichever way the robot is facing.
+     */
+    public void setFieldCentric(boolean fieldCentric) {
+        mFieldCentric = fieldCentric;
+    }
+
+    public boolean isFieldCentric() {
+        return mFieldCentric;
+    }
+
+    /**
+     * Processes one loop of stick input
+     * @param rightX turn stick
+     * @param leftX strafe stick
+     * @param leftY forward stick, negative is forward as on the gamepad
+     * @param headingDegrees robot heading as returned by IMUSystem.getHeading, only used in
+     *                       field-centric mode
+     */
+    public void update(double rightX, double leftX, double leftY, double headingDegrees) {
+        long now = System.nanoTime();
+        double dt = mLastNanos == 0 ? 0 : Math.min((now - mLastNanos) / 1e9, 0.1);
+        mLastNanos = now;
+
+        double turn = shape(rightX);
+        double strafe = shape(leftX);
+        double forward = shape(leftY);
+        if (mFieldCentric) {
+            // getHeading is positive clockwise, so turning the sticks back by it is a
+            // counter-clockwise rotation
+            double angle = Math.toRadians(headingDegrees);
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double rotatedStrafe = strafe * cos + forward * sin;
+            forward = -strafe * sin + forward * cos;
+            strafe = rotatedStrafe;
+        }
+
+        mTurn = slew(mTurn, turn, TURN_RISE, dt);
+        mStrafe = slew(mStrafe, strafe, TRANSLATE_RISE, dt);
+        mForward = slew(mForward, forward, TRANSLATE_RISE, dt);
+    }
+
+    /**
+     * Drops the slew state, so the next update goes straight to the sticks
+     */
+    public void reset() {
+        mLastNanos = 0;
+        mTurn = 0;
+        mStrafe = 0;
+        mForward = 0;
+    }
+
+    public double getTurn() {
+        return mTurn;
+    }
+
+    public double getStrafe() {
+        return mStrafe;
+    }
+
+    public double getForward() {
+        return mForward;
+    }
+
+    private static double shape(double stick) {
+        double magnitude = Math.abs(stick);
+        if (magnitude <= DEADBAND) {
+            return 0;
+        }
+        double index = Math.min(1, (magnitude - DEADBAND) / (1 - DEADBAND)) * CURVE_STEPS;
+        int i = Math.min((int) index, CURVE_STEPS - 1);
+        double value = CURVE[i] + (index - i) * (CURVE[i + 1] - CURVE[i]);
+        return Math.copySign(value, stick);
+    }
+
+    // Moves from the last output toward the target at no more than the allowed rate. With no
+    // time step yet (first update after a reset) it goes straight there.
+    private static double slew(double last, double target, double rise, double dt) {
+        if (dt == 0) {
+            return target;
+        }
+        boolean rising = Math.abs(target) > Math.abs(last) && last * target >= 0;
+        double maxStep = (rising ? rise : FALL) * dt;
+        return last + Math.max(-maxStep, Math.min(maxStep, target - last));
+    }
+}
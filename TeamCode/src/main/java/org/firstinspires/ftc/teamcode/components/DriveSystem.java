@@ -8,7 +8,7 @@ import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.util.Range;
 import java.util.EnumMap;
 
-public class DriveSystem {
+public class DriveSystem implements Subsystem {
 
     public enum MotorNames {
         FRONTLEFT, FRONTRIGHT, BACKRIGHT, BACKLEFT
@@ -31,18 +31,59 @@ public class DriveSystem {
     // 319 mm circumference of a wheel
     // 1120 ticks in a revolution
     // 1120 / 319 = 3.51
-    private final double TICKS_IN_MM = 3.51;
-    public static final double STRAFE_COEFF = 0.09;
+    public static final double TICKS_IN_MM = 3.51;
+    // Half the track width plus half the wheelbase, which converts turning wheel travel to a turn
+    public static final double TURN_RADIUS = 330;
+    // Translation power ramps down over this many ticks before the target, to no less than
+    // MIN_DRIVE_POWER so the robot doesn't stall short of it
+    public static final double DRIVE_RAMP_TICKS = 300;
+    public static final double MIN_DRIVE_POWER = 0.2;
+    // How fast driveToPosition may raise its power, per second. Each slip lowers the limit (to no
+    // less than MIN_POWER_RATE) and backs the power off; each move without one raises it again,
+    // so the drive settles just under the traction limit.
+    public static final double MAX_POWER_RATE = 6;
+    public static final double MIN_POWER_RATE = 1;
+    private static final double SLIP_RATE_FACTOR = 0.7;
+    private static final double SLIP_POWER_FACTOR = 0.8;
+    private static final double RECOVER_RATE_FACTOR = 1.1;
     public static final String TAG = "DriveSystem";
     public static final double P_TURN_COEFF = 0.012;     // Larger is more responsive, but also less stable
     public static final double HEADING_THRESHOLD = 1 ;      // As tight as we can make it with an integer gyro
 
     public EnumMap<MotorNames, DcMotor> motors;
-
+    private final MotorGroup motorGroup;
+
+    // Per-motor coefficients, indexed by MotorNames ordinal (FRONTLEFT, FRONTRIGHT, BACKRIGHT,
+    // BACKLEFT): motor direction, mecanum mixing for turning and strafing, and which side each
+    // motor is on. Strafing right, the front left and back right wheels turn forward.
+    private static final DcMotorSimple.Direction[] DIRECTIONS = {
+            DcMotorSimple.Direction.REVERSE, DcMotorSimple.Direction.FORWARD,
+            DcMotorSimple.Direction.FORWARD, DcMotorSimple.Direction.REVERSE
+    };
+    private static final double[] TURN = {1, -1, -1, 1};
+    private static final double[] STRAFE = {1, -1, 1, -1};
+    private static final double[] FORWARD = {1, 1, 1, 1};
+    private static final boolean[] IS_LEFT = {true, false, false, true};
+    private final double[] mPowers = new double[4];
+    // Mixing of the move driveToPosition is making, signed for its direction
+    private double[] mAxis = FORWARD;
+    private int mAxisSign = 1;
+    private double mMaxPower;
+    private double mPower;
+    private double mPowerRate = MAX_POWER_RATE;
+    private long mLastNanos;
+    private boolean mSlipped;
+    private final SlipDetector slipDetector = new SlipDetector();
+    private final int[] mTicks = new int[MOTOR_NAMES.length];
+
+    // The OpMode calls imuSystem.read() once per loop; the heading control here uses that reading
     public IMUSystem imuSystem;
 
     private int mTargetTicks;
     private double mTargetHeading;
+    // Ticks each motor had travelled before its encoder was last reset, indexed by MotorNames ordinal
+    private static final MotorNames[] MOTOR_NAMES = MotorNames.values();
+    private final int[] mResetTicks = new int[MOTOR_NAMES.length];
     public boolean mSlowDrive;
 
     /**
@@ -50,6 +91,7 @@ public class DriveSystem {
      */
     public DriveSystem(EnumMap<MotorNames, DcMotor> motors, BNO055IMU imu) {
         this.motors = motors;
+        motorGroup = new MotorGroup(motors, MOTOR_NAMES);
         mTargetTicks = 0;
         initMotors();
         imuSystem = new IMUSystem(imu);
@@ -57,6 +99,7 @@ public class DriveSystem {
 
     public DriveSystem(EnumMap<MotorNames, DcMotor> motors) {
         this.motors = motors;
+        motorGroup = new MotorGroup(motors, MOTOR_NAMES);
         mTargetTicks = 0;
         initMotors();
     }
@@ -66,26 +109,15 @@ public class DriveSystem {
      * @param power power of the system
      */
     public void setMotorPower(double power) {
-        for (DcMotor motor : motors.values()) {
-            motor.setPower(power);
-        }
+        motorGroup.setPower(power);
     }
 
     public void initMotors() {
-        motors.forEach((name, motor) -> {
-            motor.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-            motor.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
-            switch(name) {
-                case FRONTLEFT:
-                case BACKLEFT:
-                    motor.setDirection(DcMotorSimple.Direction.REVERSE);
-                    break;
-                case FRONTRIGHT:
-                case BACKRIGHT:
-                    motor.setDirection(DcMotorSimple.Direction.FORWARD);
-                    break;
-            }
-        });
+        for (MotorNames name : MOTOR_NAMES) {
+            resetEncoder(name, motorGroup.get(name.ordinal()));
+        }
+        motorGroup.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+        motorGroup.setDirections(DIRECTIONS);
         // setMotorPower(0);
     }
 
@@ -93,115 +125,129 @@ public class DriveSystem {
         mSlowDrive = slowDrive;
     }
 
-    private void setDriveSpeed(DcMotor motor, double motorPower) {
-        motor.setPower(Range.clip(mSlowDrive ?
-                SLOW_DRIVE_COEFF * motorPower : motorPower, -1, 1));
-    }
-
     /**
-     * Clips joystick values and drives the motors.
+     * Drives the motors from stick values, normally the outputs of a DriveInput.
+     * If any wheel would need more than full power all four are scaled down together, so the
+     * robot still moves in the direction asked for, just slower.
      * @param rightX Right X joystick value
      * @param leftX Left X joystick value
      * @param leftY Left Y joystick value in case you couldn't tell from the others
      */
-    public void drive(float rightX, float leftX, float leftY) {
-        // Prevent small values from causing the robot to drift
-        if (Math.abs(rightX) < 0.01) {
-            rightX = 0.0f;
+    public void drive(double rightX, double leftX, double leftY) {
+        double max = 0;
+        for (int i = 0; i < mPowers.length; i++) {
+            mPowers[i] = -leftY * FORWARD[i] + rightX * TURN[i] + leftX * STRAFE[i];
+            max = Math.max(max, Math.abs(mPowers[i]));
         }
-        if (Math.abs(leftX) < 0.01) {
-            leftX = 0.0f;
+        double scale = (max > 1 ? 1 / max : 1) * (mSlowDrive ? SLOW_DRIVE_COEFF : 1);
+        for (int i = 0; i < mPowers.length; i++) {
+            mPowers[i] *= scale;
         }
-        if (Math.abs(leftY) < 0.01) {
-            leftY = 0.0f;
-        }
-
-        double frontLeftPower = -leftY + rightX + leftX;
-        double frontRightPower = -leftY - rightX - leftX;
-        double backLeftPower = -leftY + rightX - leftX;
-        double backRightPower = -leftY - rightX + leftX;
-
-
-
-        motors.forEach((name, motor) -> {
-            switch(name) {
-                case FRONTRIGHT:
-                    setDriveSpeed(motor, frontRightPower);
-                    break;
-                case BACKLEFT:
-                    setDriveSpeed(motor, backLeftPower);
-                    break;
-                case FRONTLEFT:
-                    setDriveSpeed(motor, frontLeftPower);
-                    break;
-                case BACKRIGHT:
-                    setDriveSpeed(motor, backRightPower);
-                    break;
-            }
-        });
+        motorGroup.setPowers(mPowers);
         mSlowDrive = false;
     }
 
     public boolean driveToPositionTicks(int ticks, Direction direction, double maxPower) {
+        return driveToPositionTicks(ticks, direction, maxPower, Double.NaN);
+    }
+
+    // Heading in degrees as IMUSystem.getHeading(), NaN to hold the heading at the start
+    private boolean driveToPositionTicks(int ticks, Direction direction, double maxPower, double heading) {
         if(mTargetTicks == 0) {
             driveToPositionInit(ticks, direction, maxPower);
+            mTargetHeading = Double.isNaN(heading) ? imuSystem.getHeading() : heading;
         }
-        for (DcMotor motor : motors.values()) {
-            int offset = Math.abs(motor.getCurrentPosition() - mTargetTicks);
-            if(offset <= 15){
-                // Shut down motors
-                // Reset target
-                stopAndReset();
-                // Motor has reached target
-                return true;
+        // Distance along the move so far, from the mecanum forward kinematics
+        double travelled = 0;
+        for (int i = 0; i < motorGroup.size(); i++) {
+            travelled += mAxis[i] * motorGroup.get(i).getCurrentPosition();
+        }
+        // A negative distance drives the opposite way
+        double sign = mAxisSign * Math.signum(mTargetTicks);
+        double remaining = Math.abs(mTargetTicks) - sign * travelled / motorGroup.size();
+        if (remaining <= 15) {
+            if (!mSlipped) {
+                mPowerRate = Math.min(MAX_POWER_RATE, mPowerRate * RECOVER_RATE_FACTOR);
             }
+            // Shut down motors
+            // Reset target
+            stopAndReset();
+            // Motor has reached target
+            return true;
         }
 
-        if (Direction.isStrafe(direction)) {
-            double diff = computeDegreesDiff();
-            double correction = Range.clip(STRAFE_COEFF * diff, -1, 1);
-            int sign = direction == Direction.LEFT ? -1 : 1;
-            motors.forEach((name, motor) -> {
-                switch(name) {
-                    case FRONTLEFT:
-                    case BACKLEFT:
-                        motor.setPower(correction > 0 ? 1 - sign * correction: 1);
-                        break;
-                    case FRONTRIGHT:
-                    case BACKRIGHT:
-                        motor.setPower(correction < 0 ? 1 + sign * correction : 1);
-                        break;
-                }
-            });
+        long now = System.nanoTime();
+        // Steer on where the heading will be, but check for slip against what was measured
+        double predictedHeading = imuSystem.getPredictedHeading();
+        getCumulativeTicks(mTicks);
+        boolean wasSlipping = slipDetector.isSlipping();
+        if (slipDetector.update(now, mTicks, imuSystem.getLastReading().heading) && !wasSlipping) {
+            mSlipped = true;
+            mPowerRate = Math.max(MIN_POWER_RATE, mPowerRate * SLIP_RATE_FACTOR);
+            mPower *= SLIP_POWER_FACTOR;
+            Log.d(TAG, String.format("Slip at %.2f power: residual %.0f mm/s, turn rate error %.2f rad/s, rate now %.2f",
+                    mPower, slipDetector.getResidual(), slipDetector.getTurnRateError(), mPowerRate));
+        }
+
+        // Slowing down is never limited, only speeding up
+        double power = Range.clip(mMaxPower * remaining / DRIVE_RAMP_TICKS, MIN_DRIVE_POWER, mMaxPower);
+        mPower = Math.min(power, mPower + mPowerRate * (now - mLastNanos) / 1e9);
+        mLastNanos = now;
+        power = mPower;
+        double turn = getSteer(computeDegreesDiff(predictedHeading));
+        double max = 0;
+        for (int i = 0; i < mPowers.length; i++) {
+            mPowers[i] = sign * power * mAxis[i] + turn * TURN[i];
+            max = Math.max(max, Math.abs(mPowers[i]));
+        }
+        // Scaled rather than clipped so the correction isn't lost at full power
+        if (max > 1) {
+            for (int i = 0; i < mPowers.length; i++) {
+                mPowers[i] /= max;
+            }
         }
+        motorGroup.setPowers(mPowers);
         // Motor has not reached target
         return false;
     }
 
+    /**
+     * Gets how many times the wheels have slipped during driveToPosition moves
+     */
+    public int getSlipCount() {
+        return slipDetector.getSlipCount();
+    }
+
     private void driveToPositionInit(int ticks, Direction direction, double maxPower) {
-        mTargetTicks = direction == Direction.BACKWARD ? -ticks : ticks;
-        motors.forEach((name, motor) -> {
-            motor.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-            if(Direction.isStrafe(direction)) {
-                strafeInit();
-                int sign = direction == Direction.LEFT ? -1 : 1;
-
-                switch(name){
-                    case FRONTLEFT:
-                    case BACKRIGHT:
-                        motor.setTargetPosition(sign * mTargetTicks);
-                        break;
-                    case FRONTRIGHT:
-                    case BACKLEFT:
-                        motor.setTargetPosition(sign * -mTargetTicks);
-                        break;
-                }
-            } else {
-                motor.setTargetPosition(mTargetTicks);
-            }
-            motor.setMode(DcMotor.RunMode.RUN_TO_POSITION);
-            motor.setPower(maxPower);
-        });
+        mTargetTicks = ticks;
+        mAxis = Direction.isStrafe(direction) ? STRAFE : FORWARD;
+        mAxisSign = direction == Direction.BACKWARD || direction == Direction.LEFT ? -1 : 1;
+        mMaxPower = Math.max(maxPower, MIN_DRIVE_POWER);
+        for (MotorNames name : MOTOR_NAMES) {
+            resetEncoder(name, motorGroup.get(name.ordinal()));
+        }
+        // The wheel speeds are regulated by the motor controllers, and the heading is held here
+        motorGroup.setMode(DcMotor.RunMode.RUN_USING_ENCODER);
+        slipDetector.reset();
+        mPower = 0;
+        mLastNanos = System.nanoTime();
+        mSlipped = false;
+    }
+
+    private void resetEncoder(MotorNames name, DcMotor motor) {
+        mResetTicks[name.ordinal()] += motor.getCurrentPosition();
+        motor.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
+    }
+
+    /**
+     * Gets the ticks each motor has travelled since construction, unaffected by the encoder
+     * resets done at the start of every driveToPosition
+     * @param ticks array indexed by MotorNames ordinal that receives the tick counts
+     */
+    public void getCumulativeTicks(int[] ticks) {
+        for (int i = 0; i < motorGroup.size(); i++) {
+            ticks[i] = mResetTicks[i] + motorGroup.get(i).getCurrentPosition();
+        }
     }
 
     public void stopAndReset() {
@@ -211,20 +257,32 @@ public class DriveSystem {
         setRunMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
     }
 
-    private void strafeInit() {
-        mTargetHeading = imuSystem.getHeading();
-    }
-
     public void setRunMode(DcMotor.RunMode runMode) {
-        for (DcMotor motor : motors.values()) {
-            motor.setMode(runMode);
-        }
+        motorGroup.setMode(runMode);
     }
 
+    /**
+     * Drives a distance in a direction, holding the heading the robot had when the move started
+     * @param millimeters distance to drive
+     * @param maxPower the maximum power of the motors
+     * @return Returns true once the distance has been covered
+     */
     public boolean driveToPosition(int millimeters, Direction direction, double maxPower) {
         return driveToPositionTicks(millimetersToTicks(millimeters), direction, maxPower);
     }
 
+    /**
+     * Drives a distance in a direction while turning to and holding a heading, so a small
+     * realignment doesn't need a turn of its own
+     * @param millimeters distance to drive
+     * @param maxPower the maximum power of the motors
+     * @param heading heading to hold, in degrees as IMUSystem.getHeading()
+     * @return Returns true once the distance has been covered
+     */
+    public boolean driveToPosition(int millimeters, Direction direction, double maxPower, double heading) {
+        return driveToPositionTicks(millimetersToTicks(millimeters), direction, maxPower, heading);
+    }
+
     /**
      * Converts millimeters to ticks
      * @param millimeters Millimeters to convert to ticks
@@ -251,7 +309,7 @@ public class DriveSystem {
      */
     public boolean turn(double degrees, double maxPower) {
         // Since controller hub is vertical, use pitch instead of heading
-        double heading = imuSystem.getHeading();
+        double heading = imuSystem.getPredictedHeading();
         // if controller hub is flat: double heading = imuSystem.getHeading();
         if(mTargetHeading == 0) {
             mTargetHeading = (heading + degrees) % 360;
@@ -273,7 +331,7 @@ public class DriveSystem {
         double leftSpeed;
 
         // determine turn power based on +/- error
-        double error = computeDegreesDiff();
+        double error = computeDegreesDiff(heading);
         Log.d(TAG, "Error: " + error);
 
         // If it gets there: stop
@@ -306,7 +364,7 @@ public class DriveSystem {
     private double diffFromAbs(double heading) {
         // calculate error in -179 to +180 range
         // When vertical use pitch instead of heading
-        double robotDiff = heading - imuSystem.getHeading();
+        double robotDiff = heading - imuSystem.getPredictedHeading();
         Log.d(TAG,"Difference from initial: " + robotDiff);
         while (robotDiff > 180) {
             robotDiff -= 360;
@@ -319,7 +377,7 @@ public class DriveSystem {
     }
 
     /**
-     * returns desired steering force.  +/- 1 range.  +ve = steer left
+     * returns desired steering force.  +/- 1 range.  +ve = steer right, like the turn stick
      * @param error   Error angle in robot relative degrees
      * @return
      */
@@ -333,27 +391,19 @@ public class DriveSystem {
      * @param rightPower sets the right side power of the robot
      */
     private void tankDrive(double leftPower, double rightPower) {
-        motors.forEach((name, motor) -> {
-            switch(name) {
-                case FRONTLEFT:
-                case BACKLEFT:
-                    motor.setPower(leftPower);
-                    break;
-                case FRONTRIGHT:
-                case BACKRIGHT:
-                    motor.setPower(rightPower);
-                    break;
-            }
-        });
+        for (int i = 0; i < mPowers.length; i++) {
+            mPowers[i] = IS_LEFT[i] ? leftPower : rightPower;
+        }
+        motorGroup.setPowers(mPowers);
     }
 
     /**
      * computeDegreesDiff determines the error between the target angle and the robot's current heading
      * @return  error angle: Degrees in the range +/- 180. Centered on the robot's frame of reference
-     *          +ve error means the robot should turn LEFT (CCW) to reduce error.
+     *          +ve error means the robot should turn RIGHT (CW) to reduce error, as in onHeading.
      */
-    private double computeDegreesDiff() {
-        double diff = mTargetHeading - imuSystem.getHeading();
+    private double computeDegreesDiff(double heading) {
+        double diff = mTargetHeading - heading;
         return Math.abs(diff) == 180 ? diff : diff % 180;
     }
 
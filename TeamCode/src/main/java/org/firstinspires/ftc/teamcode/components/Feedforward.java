@@ -0,0 +1,148 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * The voltage a motor needs to move at a velocity and acceleration:
+ * kS to break static friction, kV per unit of velocity, kA per unit of acceleration, and for a
+ * lift kG to hold against gravity. Working in volts and dividing by the battery voltage at the
+ * time keeps the same constants right as the battery drains.
+ *
+ * The constants come from fit(), run on logs from FeedforwardCharacterization. Units are
+ * whatever the log was in (e.g. millimeters or ticks, and seconds).
+ */
+public class Feedforward {
+
+    public final double kS;
+    public final double kV;
+    public final double kA;
+    public final double kG;
+
+    public Feedforward(double kS, double kV, double kA, double kG) {
+        this.kS = kS;
+        this.kV = kV;
+        this.kA = kA;
+        this.kG = kG;
+    }
+
+    /**
+     * Gets the voltage for a velocity and acceleration
+     * @return Returns the voltage, not limited to what the battery can give
+     */
+    public double calculate(double velocity, double acceleration) {
+        return kS * Math.signum(velocity) + kV * velocity + kA * acceleration + kG;
+    }
+
+    /**
+     * Gets the motor power for a velocity and acceleration
+     * @param batteryVoltage the battery voltage now
+     * @return Returns the power, limited to -1 to 1
+     */
+    public double calculatePower(double velocity, double acceleration, double batteryVoltage) {
+        return Math.max(-1, Math.min(1, calculate(velocity, acceleration) / batteryVoltage));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("kS %.4g kV %.4g kA %.4g kG %.4g", kS, kV, kA, kG);
+    }
+
+    /**
+     * Fits the constants by least squares to logged samples of the applied voltage, velocity
+     * and acceleration. Samples slower than minVelocity are left out since friction there isn't
+     * kinetic yet.
+     * @param count number of samples to use from the start of the arrays
+     * @param withGravity whether to fit kG, for a lift; otherwise kG is zero
+     * @return Returns the fit constants
+     */
+    public static Feedforward fit(double[] volts, double[] velocities, double[] accelerations,
+                                  int count, double minVelocity, boolean withGravity) {
+        int terms = withGravity ? 4 : 3;
+        // Normal equations of the fit, as an augmented matrix
+        double[][] normal = new double[terms][terms + 1];
+        double[] row = new double[terms];
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(velocities[i]) < minVelocity) {
+                continue;
+            }
+            row[0] = Math.signum(velocities[i]);
+            row[1] = velocities[i];
+            row[2] = accelerations[i];
+            if (withGravity) {
+                row[3] = 1;
+            }
+            for (int j = 0; j < terms; j++) {
+                for (int k = 0; k < terms; k++) {
+                    normal[j][k] += row[j] * row[k];
+                }
+                normal[j][terms] += row[j] * volts[i];
+            }
+        }
+        double[] solution = solve(normal);
+        return new Feedforward(solution[0], solution[1], solution[2], withGravity ? solution[3] : 0);
+    }
+
+    /**
+     * Gets how much of the variation in voltage the constants explain over the samples fit()
+     * would use
+     * @return Returns the coefficient of determination, 1 for a perfect fit
+     */
+    public double rSquared(double[] volts, double[] velocities, double[] accelerations,
+                           int count, double minVelocity) {
+        double sum = 0;
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(velocities[i]) >= minVelocity) {
+                sum += volts[i];
+                used++;
+            }
+        }
+        double mean = used > 0 ? sum / used : 0;
+        double residual = 0;
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(velocities[i]) >= minVelocity) {
+                double error = volts[i] - calculate(velocities[i], accelerations[i]);
+                residual += error * error;
+                total += (volts[i] - mean) * (volts[i] - mean);
+            }
+        }
+        return total > 0 ? 1 - residual / total : 0;
+    }
+
+    // Gaussian elimination with partial pivoting; a singular system (not enough distinct data)
+    // leaves the unsolvable terms at zero
+    private static double[] solve(double[][] augmented) {
+        int n = augmented.length;
+        for (int column = 0; column < n; column++) {
+            int pivot = column;
+            for (int r = column + 1; r < n; r++) {
+                if (Math.abs(augmented[r][column]) > Math.abs(augmented[pivot][column])) {
+                    pivot = r;
+                }
+            }
+            double[] swap = augmented[column];
+            augmented[column] = augmented[pivot];
+            augmented[pivot] = swap;
+            if (Math.abs(augmented[column][column]) < 1e-12) {
+                continue;
+            }
+            for (int r = column + 1; r < n; r++) {
+                double factor = augmented[r][column] / augmented[column][column];
+                for (int c = column; c <= n; c++) {
+                    augmented[r][c] -= factor * augmented[column][c];
+                }
+            }
+        }
+        double[] solution = new double[n];
+        for (int r = n - 1; r >= 0; r--) {
+            if (Math.abs(augmented[r][r]) < 1e-12) {
+                continue;
+            }
+            double value = augmented[r][n];
+            for (int c = r + 1; c < n; c++) {
+                value -= augmented[r][c] * solution[c];
+            }
+            solution[r] = value / augmented[r][r];
+        }
+        return solution;
+    }
+}
@@ -0,0 +1,92 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Static model of the field walls, stored as a precomputed distance field so range sensors can be
+ * ray cast by sphere tracing: from any point, it is safe to step forward by the distance to the
+ * nearest wall. Coordinates are in millimeters with the origin at the center of the field, the
+ * same frame Vuforia uses.
+ */
+public class FieldMap {
+
+    public static final float HALF_FIELD = 72 * 25.4f;
+    // Grid resolution of the distance field
+    private static final float CELL_SIZE = 20;
+    // A ray that gets this close to a wall has hit it
+    private static final float HIT_DISTANCE = 5;
+    private static final int MAX_STEPS = 64;
+
+    private final int cells;
+    private final float[] distances;
+
+    /**
+     * Builds the distance field for the perimeter walls plus any extra wall segments
+     * @param segments extra walls as {x1, y1, x2, y2} in millimeters, may be empty
+     */
+    public FieldMap(float[][] segments) {
+        cells = (int) Math.ceil(2 * HALF_FIELD / CELL_SIZE) + 1;
+        distances = new float[cells * cells];
+        for (int row = 0; row < cells; row++) {
+            float y = row * CELL_SIZE - HALF_FIELD;
+            for (int col = 0; col < cells; col++) {
+                float x = col * CELL_SIZE - HALF_FIELD;
+                float nearest = Math.min(
+                        Math.min(x + HALF_FIELD, HALF_FIELD - x),
+                        Math.min(y + HALF_FIELD, HALF_FIELD - y));
+                for (float[] segment : segments) {
+                    nearest = Math.min(nearest, distanceToSegment(x, y, segment));
+                }
+                distances[row * cells + col] = Math.max(nearest, 0);
+            }
+        }
+    }
+
+    public FieldMap() {
+        this(new float[0][]);
+    }
+
+    /**
+     * Gets the distance to the nearest wall, looked up from the nearest grid cell
+     * @return Returns the distance in millimeters, or 0 outside the field
+     */
+    public float distanceAt(float x, float y) {
+        int col = Math.round((x + HALF_FIELD) / CELL_SIZE);
+        int row = Math.round((y + HALF_FIELD) / CELL_SIZE);
+        if (col < 0 || row < 0 || col >= cells || row >= cells) {
+            return 0;
+        }
+        return distances[row * cells + col];
+    }
+
+    /**
+     * Casts a ray and finds how far away the first wall is
+     * @param x start x in millimeters
+     * @param y start y in millimeters
+     * @param angle direction of the ray in radians, counter-clockwise from +x
+     * @param maxRange longest range worth tracing
+     * @return Returns the range to the wall, or maxRange if nothing was hit
+     */
+    public float castRay(float x, float y, float angle, float maxRange) {
+        float dx = (float) Math.cos(angle);
+        float dy = (float) Math.sin(angle);
+        float travelled = 0;
+        for (int i = 0; i < MAX_STEPS && travelled < maxRange; i++) {
+            float step = distanceAt(x + dx * travelled, y + dy * travelled);
+            if (step < HIT_DISTANCE) {
+                return travelled;
+            }
+            travelled += step;
+        }
+        return Math.min(travelled, maxRange);
+    }
+
+    private static float distanceToSegment(float x, float y, float[] segment) {
+        float sx = segment[2] - segment[0];
+        float sy = segment[3] - segment[1];
+        float lengthSquared = sx * sx + sy * sy;
+        float t = lengthSquared == 0 ? 0 : ((x - segment[0]) * sx + (y - segment[1]) * sy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        float px = segment[0] + t * sx - x;
+        float py = segment[1] + t * sy - y;
+        return (float) Math.sqrt(px * px + py * py);
+    }
+}
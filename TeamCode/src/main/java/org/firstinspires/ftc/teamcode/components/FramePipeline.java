@@ -0,0 +1,247 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import android.util.Log;
+
+import com.vuforia.Frame;
+import com.vuforia.Image;
+import com.vuforia.PIXEL_FORMAT;
+
+import org.firstinspires.ftc.robotcore.external.navigation.VuforiaLocalizer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls camera frames off a Vuforia localizer into a fixed pool of direct buffers and hands them
+ * to registered processors on a separate thread. No pixel buffers are allocated per frame:
+ * they are recycled once every processor has seen them, and when the processors fall behind the
+ * oldest pending frame is dropped so processors always see the freshest image. The only per-frame
+ * objects are the small Image wrappers Vuforia hands back while we look for the RGB565 image.
+ */
+public class FramePipeline {
+
+    public static final String TAG = "FramePipeline";
+
+    /**
+     * Implemented by custom vision code. The frame is only valid for the duration of the call.
+     */
+    public interface FrameProcessor {
+        void process(PooledFrame frame);
+    }
+
+    /**
+     * A camera frame copied into a pooled direct buffer
+     */
+    public static class PooledFrame {
+        public final ByteBuffer pixels;
+        public int width;
+        public int height;
+        public int stride;
+        // System.nanoTime() when the frame was pulled from Vuforia
+        public long timestampNanos;
+
+        private PooledFrame(int capacity) {
+            pixels = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    // VGA at two bytes a pixel
+    public static final int DEFAULT_BUFFER_SIZE = 640 * 480 * 2;
+    public static final int DEFAULT_POOL_SIZE = 3;
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final VuforiaLocalizer vuforia;
+    private final ArrayBlockingQueue<PooledFrame> freeFrames;
+    private final ArrayBlockingQueue<PooledFrame> readyFrames;
+    // Swapped wholesale on register so the processing loop can iterate without allocating
+    private volatile FrameProcessor[] processors = new FrameProcessor[0];
+
+    private Thread acquireThread;
+    private Thread processThread;
+    private volatile boolean running;
+
+    private volatile long mFramesAcquired;
+    private volatile long mFramesProcessed;
+    private volatile long mFramesDropped;
+    private volatile long mLastFrameAgeNanos;
+    private volatile long mMaxFrameAgeNanos;
+
+    public FramePipeline(VuforiaLocalizer vuforia) {
+        this(vuforia, DEFAULT_POOL_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param vuforia localizer to pull frames from
+     * @param poolSize number of frame buffers, which also bounds the frame queue
+     * @param bufferSize size of each buffer in bytes; larger frames are dropped
+     */
+    public FramePipeline(VuforiaLocalizer vuforia, int poolSize, int bufferSize) {
+        this.vuforia = vuforia;
+        freeFrames = new ArrayBlockingQueue<>(poolSize);
+        readyFrames = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            freeFrames.offer(new PooledFrame(bufferSize));
+        }
+    }
+
+    public synchronized void addProcessor(FrameProcessor processor) {
+        FrameProcessor[] updated = new FrameProcessor[processors.length + 1];
+        System.arraycopy(processors, 0, updated, 0, processors.length);
+        updated[processors.length] = processor;
+        processors = updated;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        com.vuforia.Vuforia.setFrameFormat(PIXEL_FORMAT.RGB565, true);
+        // Vuforia only needs to hold the newest frame, we keep our own queue
+        vuforia.setFrameQueueCapacity(1);
+        mLastFrameAgeNanos = 0;
+        mMaxFrameAgeNanos = 0;
+        running = true;
+        acquireThread = new Thread(this::acquireLoop, TAG + "-acquire");
+        processThread = new Thread(this::processLoop, TAG + "-process");
+        acquireThread.start();
+        processThread.start();
+    }
+
+    /**
+     * Stops both threads and waits for them, so every buffer is back in the pool for the next start
+     */
+    public void stop() {
+        running = false;
+        if (acquireThread != null) {
+            acquireThread.interrupt();
+            processThread.interrupt();
+            try {
+                acquireThread.join();
+                processThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            acquireThread = null;
+            processThread = null;
+        }
+        // Frames acquired but never processed
+        PooledFrame pending;
+        while ((pending = readyFrames.poll()) != null) {
+            freeFrames.offer(pending);
+        }
+        vuforia.setFrameQueueCapacity(0);
+    }
+
+    private void acquireLoop() {
+        try {
+            while (running) {
+                VuforiaLocalizer.CloseableFrame frame =
+                        vuforia.getFrameQueue().poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    acquire(frame);
+                } finally {
+                    frame.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acquire(Frame frame) {
+        Image image = null;
+        for (int i = 0; i < frame.getNumImages(); i++) {
+            Image candidate = frame.getImage(i);
+            if (candidate.getFormat() == PIXEL_FORMAT.RGB565) {
+                image = candidate;
+                break;
+            }
+        }
+        if (image == null) {
+            return;
+        }
+
+        PooledFrame pooled = freeFrames.poll();
+        if (pooled == null) {
+            // Processors are behind: recycle the oldest pending frame
+            pooled = readyFrames.poll();
+            mFramesDropped++;
+            if (pooled == null) {
+                return;
+            }
+        }
+
+        ByteBuffer source = image.getPixels();
+        if (source.remaining() > pooled.pixels.capacity()) {
+            Log.w(TAG, "Frame of " + source.remaining() + " bytes does not fit the pool");
+            mFramesDropped++;
+            freeFrames.offer(pooled);
+            return;
+        }
+        pooled.pixels.clear();
+        pooled.pixels.put(source);
+        pooled.pixels.flip();
+        pooled.width = image.getWidth();
+        pooled.height = image.getHeight();
+        pooled.stride = image.getStride();
+        pooled.timestampNanos = System.nanoTime();
+        mFramesAcquired++;
+        readyFrames.offer(pooled);
+    }
+
+    private void processLoop() {
+        try {
+            while (running) {
+                PooledFrame frame = readyFrames.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                long age = System.nanoTime() - frame.timestampNanos;
+                mLastFrameAgeNanos = age;
+                mMaxFrameAgeNanos = Math.max(mMaxFrameAgeNanos, age);
+
+                // Back to the pool even if a processor throws or we're stopped part way
+                try {
+                    FrameProcessor[] current = processors;
+                    for (int i = 0; i < current.length; i++) {
+                        frame.pixels.rewind();
+                        current[i].process(frame);
+                    }
+                    mFramesProcessed++;
+                } finally {
+                    freeFrames.offer(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFramesAcquired() {
+        return mFramesAcquired;
+    }
+
+    public long getFramesProcessed() {
+        return mFramesProcessed;
+    }
+
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    /**
+     * Gets how old the last frame was when the processors started on it
+     * @return Returns the frame age in milliseconds
+     */
+    public double getLastFrameAgeMs() {
+        return mLastFrameAgeNanos / 1e6;
+    }
+
+    public double getMaxFrameAgeMs() {
+        return mMaxFrameAgeNanos / 1e6;
+    }
+}
@@ -0,0 +1,198 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.hardware.Gamepad;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Both gamepads' state, one record per loop, so a teleop run can be played back with the same
+ * inputs. Recording goes into a buffer allocated up front and is only written out by save(),
+ * so recording costs no I/O or allocation in the loop.
+ *
+ * File format, big-endian: a magic number and the record count, then per record the time in
+ * milliseconds since the first one and each gamepad as a short of button bits, the four stick
+ * axes as signed bytes (x 127) and the two triggers as unsigned bytes (x 255).
+ */
+public class GamepadRecording {
+
+    private static final int MAGIC = 0x47505231;    // "GPR1"
+    private static final int HEADER_BYTES = 8;
+    private static final int GAMEPAD_BYTES = 8;
+    private static final int RECORD_BYTES = 4 + 2 * GAMEPAD_BYTES;
+    // Three minutes at 200 loops a second
+    private static final int MAX_RECORDS = 36000;
+
+    private final ByteBuffer buffer;
+    private int mCount;
+    private long mStartNanos;
+    private int mPlayed;
+
+    private GamepadRecording(ByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        mCount = count;
+    }
+
+    /**
+     * Makes an empty recording to record() into
+     */
+    public GamepadRecording() {
+        this(ByteBuffer.allocate(HEADER_BYTES + MAX_RECORDS * RECORD_BYTES), 0);
+    }
+
+    /**
+     * Reads a recording written by save()
+     * @return Returns the recording, ready to play from the start
+     * @throws IOException if the file can't be read or isn't a recording
+     */
+    public static GamepadRecording load(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) {
+                    throw new IOException("Recording truncated: " + file);
+                }
+                read += n;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a gamepad recording: " + file);
+        }
+        int count = buffer.getInt(4);
+        if (HEADER_BYTES + (long) count * RECORD_BYTES > bytes.length) {
+            throw new IOException("Recording truncated: " + file);
+        }
+        return new GamepadRecording(buffer, count);
+    }
+
+    /**
+     * Records both gamepads as they are this loop
+     * @return Returns false once the recording is full
+     */
+    public boolean record(Gamepad gamepad1, Gamepad gamepad2) {
+        if (mCount >= MAX_RECORDS) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (mCount == 0) {
+            mStartNanos = now;
+        }
+        int offset = HEADER_BYTES + mCount * RECORD_BYTES;
+        buffer.putInt(offset, (int) ((now - mStartNanos) / 1000000));
+        writeGamepad(offset + 4, gamepad1);
+        writeGamepad(offset + 4 + GAMEPAD_BYTES, gamepad2);
+        mCount++;
+        return true;
+    }
+
+    /**
+     * Writes the recording out
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, mCount);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array(), 0, HEADER_BYTES + mCount * RECORD_BYTES);
+        }
+    }
+
+    /**
+     * Sets both gamepads to the last record taken by the given time, skipping any records in
+     * between and leaving the gamepads alone if no new record is due yet
+     * @param timeMs time since playback started, in milliseconds
+     * @return Returns false, leaving the gamepads alone, once every record has been played
+     */
+    public boolean play(long timeMs, Gamepad gamepad1, Gamepad gamepad2) {
+        if (mPlayed >= mCount) {
+            return false;
+        }
+        int reached = mPlayed;
+        while (reached < mCount && getTimeMs(reached) <= timeMs) {
+            reached++;
+        }
+        if (reached > mPlayed) {
+            int offset = HEADER_BYTES + (reached - 1) * RECORD_BYTES;
+            readGamepad(offset + 4, gamepad1);
+            readGamepad(offset + 4 + GAMEPAD_BYTES, gamepad2);
+            mPlayed = reached;
+        }
+        return true;
+    }
+
+    /**
+     * Gets how many records play() has reached, including any it skipped
+     */
+    public int getPlayed() {
+        return mPlayed;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets when a record was taken
+     * @return Returns the time in milliseconds since the first record
+     */
+    public int getTimeMs(int index) {
+        return buffer.getInt(HEADER_BYTES + index * RECORD_BYTES);
+    }
+
+    private void writeGamepad(int offset, Gamepad gamepad) {
+        int buttons = 0;
+        buttons |= gamepad.a ? 1 : 0;
+        buttons |= gamepad.b ? 1 << 1 : 0;
+        buttons |= gamepad.x ? 1 << 2 : 0;
+        buttons |= gamepad.y ? 1 << 3 : 0;
+        buttons |= gamepad.dpad_up ? 1 << 4 : 0;
+        buttons |= gamepad.dpad_down ? 1 << 5 : 0;
+        buttons |= gamepad.dpad_left ? 1 << 6 : 0;
+        buttons |= gamepad.dpad_right ? 1 << 7 : 0;
+        buttons |= gamepad.left_bumper ? 1 << 8 : 0;
+        buttons |= gamepad.right_bumper ? 1 << 9 : 0;
+        buttons |= gamepad.left_stick_button ? 1 << 10 : 0;
+        buttons |= gamepad.right_stick_button ? 1 << 11 : 0;
+        buttons |= gamepad.back ? 1 << 12 : 0;
+        buttons |= gamepad.start ? 1 << 13 : 0;
+        buttons |= gamepad.guide ? 1 << 14 : 0;
+        buffer.putShort(offset, (short) buttons);
+        buffer.put(offset + 2, (byte) Math.round(gamepad.left_stick_x * 127));
+        buffer.put(offset + 3, (byte) Math.round(gamepad.left_stick_y * 127));
+        buffer.put(offset + 4, (byte) Math.round(gamepad.right_stick_x * 127));
+        buffer.put(offset + 5, (byte) Math.round(gamepad.right_stick_y * 127));
+        buffer.put(offset + 6, (byte) Math.round(gamepad.left_trigger * 255));
+        buffer.put(offset + 7, (byte) Math.round(gamepad.right_trigger * 255));
+    }
+
+    private void readGamepad(int offset, Gamepad gamepad) {
+        int buttons = buffer.getShort(offset);
+        gamepad.a = (buttons & 1) != 0;
+        gamepad.b = (buttons & 1 << 1) != 0;
+        gamepad.x = (buttons & 1 << 2) != 0;
+        gamepad.y = (buttons & 1 << 3) != 0;
+        gamepad.dpad_up = (buttons & 1 << 4) != 0;
+        gamepad.dpad_down = (buttons & 1 << 5) != 0;
+        gamepad.dpad_left = (buttons & 1 << 6) != 0;
+        gamepad.dpad_right = (buttons & 1 << 7) != 0;
+        gamepad.left_bumper = (buttons & 1 << 8) != 0;
+        gamepad.right_bumper = (buttons & 1 << 9) != 0;
+        gamepad.left_stick_button = (buttons & 1 << 10) != 0;
+        gamepad.right_stick_button = (buttons & 1 << 11) != 0;
+        gamepad.back = (buttons & 1 << 12) != 0;
+        gamepad.start = (buttons & 1 << 13) != 0;
+        gamepad.guide = (buttons & 1 << 14) != 0;
+        gamepad.left_stick_x = buffer.get(offset + 2) / 127f;
+        gamepad.left_stick_y = buffer.get(offset + 3) / 127f;
+        gamepad.right_stick_x = buffer.get(offset + 4) / 127f;
+        gamepad.right_stick_y = buffer.get(offset + 5) / 127f;
+        gamepad.left_trigger = (buffer.get(offset + 6) & 0xFF) / 255f;
+        gamepad.right_trigger = (buffer.get(offset + 7) & 0xFF) / 255f;
+    }
+}
@@ -0,0 +1,22 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * One reading of the IMU's orientation and angular velocity, taken in a single bus read by
+ * IMUSystem.read(). Angles follow IMUSystem's getters: degrees, heading clockwise positive.
+ * Meant to be kept and refilled every loop rather than allocated.
+ */
+public class IMUReading {
+
+    // System.nanoTime() halfway through the read
+    public long nanos;
+
+    public double heading;
+    public double roll;
+    public double pitch;
+
+    // Rotation rates about the IMU's axes, degrees per second; the heading rate is clockwise
+    // positive like the heading
+    public double headingRate;
+    public double rollRate;
+    public double pitchRate;
+}
@@ -1,24 +1,59 @@
 package org.firstinspires.ftc.teamcode.components;
 
+import android.util.Log;
+
 import com.qualcomm.hardware.bosch.BNO055IMU;
+import com.qualcomm.robotcore.util.ReadWriteFile;
 
 import org.firstinspires.ftc.robotcore.external.navigation.Acceleration;
 import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
-import org.firstinspires.ftc.robotcore.external.navigation.AxesOrder;
-import org.firstinspires.ftc.robotcore.external.navigation.AxesReference;
 import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
-import org.firstinspires.ftc.robotcore.external.navigation.Position;
-import org.firstinspires.ftc.robotcore.external.navigation.Velocity;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+
+import java.io.File;
 
 import java.util.Locale;
 
 /**
  * Creates an IMU system that handles the angle and movement of the robot through a gyroscope.
+ * Calibration saved once with the IMU Calibration test OpMode is loaded on every initialize, so
+ * the IMU starts out calibrated instead of settling during init; a background check confirms it.
+ * Call read() once per loop: it is the only bus transaction, and the getters all use its reading.
  */
 public class IMUSystem {
+    public static final String TAG = "IMUSystem";
+    // In the robot controller's settings directory, where BNO055IMU looks for it
+    public static final String CALIBRATION_FILE = "BNO055IMUCalibration.json";
+    // How long the background check waits for the gyro to report calibrated
+    private static final long CALIBRATION_TIMEOUT_MS = 3000;
+    private static final long CALIBRATION_POLL_MS = 20;
+    // Gyro, Euler and quaternion data sit next to each other from GYR_DATA_X_LSB, so one read
+    // of this many bytes gets all of them
+    private static final int DATA_LENGTH = 20;
+    private static final int GYRO_OFFSET = 0;
+    private static final int QUATERNION_OFFSET = 12;
+    // Raw units: the quaternion is scaled by 2^14, the gyro by 16 per degree per second with
+    // the parameters' AngleUnit.DEGREES
+    private static final double QUATERNION_SCALE = 1.0 / (1 << 14);
+    private static final double GYRO_SCALE = 1.0 / 16;
+    // How far past the read to predict the heading for: the IMU's fusion output lags the motion
+    // and the motor powers set from it land a write later. Tune against overshoot in turns.
+    private static final long CONTROL_LEAD_NANOS = 10000000;
+    // Never extrapolate further past a reading than this, so an old reading or a stalled bus
+    // can't carry the heading far off
+    static final long MAX_EXTRAPOLATION_NANOS = 50000000;
+
     public BNO055IMU imu;
     public BNO055IMU.Parameters parameters;
 
+    private final boolean mHasStoredCalibration;
+    private final long mStartNanos;
+    private final long mInitNanos;
+    private volatile boolean mCalibrated;
+    // From the start of initialize until the gyro reported calibrated, 0 until then
+    private volatile long mCalibratedNanos;
+    private final IMUReading mReading = new IMUReading();
+
     // State used for updating telemetry
     private Orientation angles;
     private Acceleration gravity;
@@ -33,40 +68,185 @@ public class IMUSystem {
         this.parameters.accelUnit = BNO055IMU.AccelUnit.METERS_PERSEC_PERSEC;
         this.parameters.loggingEnabled = true;
         this.parameters.loggingTag = "BNO055";
-        // this.parameters.calibrationDataFile = "AdafruitIMUCalibration.json"; // see the calibration sample opmode
+        mStartNanos = System.nanoTime();
+        mHasStoredCalibration = getCalibrationFile().exists();
+        if (mHasStoredCalibration) {
+            this.parameters.calibrationDataFile = CALIBRATION_FILE;
+        }
         this.imu = imu;
         this.imu.initialize(parameters);
+        mInitNanos = System.nanoTime() - mStartNanos;
+        Log.d(TAG, String.format("Initialized in %.0f ms, %s stored calibration", mInitNanos / 1e6,
+                mHasStoredCalibration ? "with" : "without"));
+        startCalibrationCheck();
+        read();
+        // Position comes from PoseEstimator; the BNO055's own double integration of the
+        // accelerometer drifts off within seconds, so it isn't started
+    }
+
+    /**
+     * Saves the IMU's current calibration, to be loaded by every initialize from now on
+     */
+    public void saveCalibration() {
+        ReadWriteFile.writeFile(getCalibrationFile(), imu.readCalibrationData().serialize());
+        Log.d(TAG, "Saved calibration to " + getCalibrationFile());
+    }
+
+    public static File getCalibrationFile() {
+        return AppUtil.getInstance().getSettingsFile(CALIBRATION_FILE);
+    }
+
+    public boolean hasStoredCalibration() {
+        return mHasStoredCalibration;
+    }
+
+    /**
+     * Checks whether the background check has seen the gyro calibrated
+     */
+    public boolean isCalibrated() {
+        return mCalibrated;
+    }
+
+    /**
+     * Gets how long initialize took
+     * @return Returns the time in milliseconds
+     */
+    public double getInitMs() {
+        return mInitNanos / 1e6;
+    }
+
+    /**
+     * Gets how long after initialize started the gyro reported calibrated
+     * @return Returns the time in milliseconds, NaN if it hasn't yet
+     */
+    public double getCalibratedMs() {
+        return mCalibrated ? mCalibratedNanos / 1e6 : Double.NaN;
+    }
+
+    /**
+     * Gets the calibration status of each part of the IMU
+     * @return Returns the status in the form BNO055IMU.CalibrationStatus prints it
+     */
+    public String getCalibrationStatus() {
+        return imu.getCalibrationStatus().toString();
+    }
 
-        // Enable reporting of position using the naive integrator
-        imu.startAccelerationIntegration(new Position(), new Velocity(), 500);
+    // Polls the calibration status off the loop thread until the gyro is calibrated or the
+    // check times out, so init doesn't wait on it
+    private void startCalibrationCheck() {
+        Thread checker = new Thread(() -> {
+            long deadline = mStartNanos + CALIBRATION_TIMEOUT_MS * 1000000;
+            while (System.nanoTime() < deadline) {
+                if (imu.isGyroCalibrated()) {
+                    mCalibratedNanos = System.nanoTime() - mStartNanos;
+                    mCalibrated = true;
+                    Log.d(TAG, String.format("Gyro calibrated %.0f ms after initialize started", mCalibratedNanos / 1e6));
+                    return;
+                }
+                try {
+                    Thread.sleep(CALIBRATION_POLL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Log.w(TAG, "Not calibrated after " + CALIBRATION_TIMEOUT_MS + " ms: " + getCalibrationStatus());
+        }, "IMUCalibration");
+        checker.setDaemon(true);
+        checker.start();
     }
 
     /**
-     * Gets the yaw of the IMU
+     * Gets the yaw of the IMU as of the last read()
      * @return Returns the yaw in degrees
      */
     public double getHeading() {
-        return -imu.getAngularOrientation().firstAngle;
-//        Orientation orientation = imu.getAngularOrientation().toAxesReference(AxesReference.INTRINSIC).toAxesOrder(AxesOrder.ZYX);
-//        return orientation.firstAngle;
+        return mReading.heading;
     }
 
     /**
-     * Gets the roll of the IMU
+     * Gets the roll of the IMU as of the last read()
      * @return Returns the roll in degrees
      */
     public double getRoll() {
-        Orientation orientation = imu.getAngularOrientation().toAxesReference(AxesReference.INTRINSIC).toAxesOrder(AxesOrder.ZYX);
-        return orientation.secondAngle;
+        return mReading.roll;
     }
 
     /**
-     * Gets the pitch of the IMU
+     * Gets the pitch of the IMU as of the last read()
      * @return Returns the pitch in degrees
      */
     public double getPitch() {
-        Orientation orientation = imu.getAngularOrientation().toAxesReference(AxesReference.INTRINSIC).toAxesOrder(AxesOrder.ZYX);
-        return orientation.thirdAngle;
+        return mReading.pitch;
+    }
+
+    /**
+     * Reads the orientation and angular velocity together in one bus transaction, instead of
+     * one per getter. The angles are worked out from the quaternion directly, without the
+     * Orientation objects converting between axis orders allocates.
+     * @return Returns the reading, the same object every call, refilled by each read
+     */
+    public IMUReading read() {
+        long before = System.nanoTime();
+        byte[] data = imu.read(BNO055IMU.Register.GYR_DATA_X_LSB, DATA_LENGTH);
+        mReading.nanos = before + (System.nanoTime() - before) / 2;
+
+        double w = readShort(data, QUATERNION_OFFSET) * QUATERNION_SCALE;
+        double x = readShort(data, QUATERNION_OFFSET + 2) * QUATERNION_SCALE;
+        double y = readShort(data, QUATERNION_OFFSET + 4) * QUATERNION_SCALE;
+        double z = readShort(data, QUATERNION_OFFSET + 6) * QUATERNION_SCALE;
+        // Intrinsic ZYX angles, as getAngularOrientation gives them: firstAngle about z
+        // (counter-clockwise, so negated for the heading), secondAngle about y, thirdAngle about x
+        double yaw = Math.atan2(2 * (w * z + x * y), 1 - 2 * (y * y + z * z));
+        double sinY = Math.max(-1, Math.min(1, 2 * (w * y - z * x)));
+        mReading.heading = -Math.toDegrees(yaw);
+        mReading.roll = Math.toDegrees(Math.asin(sinY));
+        mReading.pitch = Math.toDegrees(Math.atan2(2 * (w * x + y * z), 1 - 2 * (x * x + y * y)));
+
+        mReading.pitchRate = readShort(data, GYRO_OFFSET) * GYRO_SCALE;
+        mReading.rollRate = readShort(data, GYRO_OFFSET + 2) * GYRO_SCALE;
+        mReading.headingRate = -readShort(data, GYRO_OFFSET + 4) * GYRO_SCALE;
+        return mReading;
+    }
+
+    /**
+     * Predicts the heading for when the controller's output will act on it, from the last
+     * read() and the measured turn rate
+     * @return Returns the heading in degrees, -180 to 180, clockwise positive
+     */
+    public double getPredictedHeading() {
+        return predictHeading(System.nanoTime() + CONTROL_LEAD_NANOS);
+    }
+
+    /**
+     * Extrapolates the heading from the last read() to a moment, assuming the turn rate holds.
+     * The extrapolation is limited to MAX_EXTRAPOLATION_NANOS either side of the reading.
+     * @param nanos System.nanoTime() to predict the heading for
+     * @return Returns the heading in degrees, -180 to 180, clockwise positive
+     */
+    public double predictHeading(long nanos) {
+        return predictHeading(mReading, nanos);
+    }
+
+    /**
+     * Extrapolates the heading of a reading to a moment, as predictHeading(long) does for the
+     * last read()
+     * @return Returns the heading in degrees, -180 to 180, clockwise positive
+     */
+    public static double predictHeading(IMUReading reading, long nanos) {
+        long age = Math.max(-MAX_EXTRAPOLATION_NANOS, Math.min(MAX_EXTRAPOLATION_NANOS, nanos - reading.nanos));
+        return AngleUnit.DEGREES.normalize(reading.heading + reading.headingRate * age / 1e9);
+    }
+
+    /**
+     * Gets the reading from the last read() without reading again
+     */
+    public IMUReading getLastReading() {
+        return mReading;
+    }
+
+    // Little-endian signed 16 bits, as the IMU's data registers are laid out
+    private static int readShort(byte[] data, int offset) {
+        return (short) ((data[offset + 1] << 8) | (data[offset] & 0xFF));
     }
 
     /**
@@ -79,16 +259,6 @@ public class IMUSystem {
         return imu.getLinearAcceleration();
     }
 
-    /**
-     * Gets the velocity of the IMU
-     * @return Returns the velocity of the IMU
-     * @see Velocity
-     */
-    public Velocity getVelocity()
-    {
-        return imu.getVelocity();
-    }
-
     /**
      * Formats the angle as a string
      * @param angleUnit unit of the angle
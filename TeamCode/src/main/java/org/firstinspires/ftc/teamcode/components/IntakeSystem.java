@@ -6,33 +6,33 @@ import com.qualcomm.robotcore.hardware.Servo;
 
 import java.util.EnumMap;
 
-public class IntakeSystem {
+public class IntakeSystem implements Subsystem {
 
     public enum MotorNames {
         RIGHT_INTAKE, LEFT_INTAKE
     }
 
     private EnumMap<IntakeSystem.MotorNames, DcMotor> motors;
+    private final MotorGroup motorGroup;
+    // Indexed by MotorNames ordinal
+    private static final DcMotorSimple.Direction[] DIRECTIONS = {
+            DcMotorSimple.Direction.REVERSE, DcMotorSimple.Direction.FORWARD
+    };
 
     private Servo bottomServo;
 
     public IntakeSystem(EnumMap<IntakeSystem.MotorNames, DcMotor> motors, Servo servo) {
         this.motors = motors;
+        motorGroup = new MotorGroup(motors, MotorNames.values());
         initMotors();
         this.bottomServo = servo;
         this.bottomServo.setPosition(0.5);
     }
 
     private void initMotors() {
-        motors.forEach((name, motor) -> {
-            motor.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
-            if (name == MotorNames.RIGHT_INTAKE) {
-                motor.setDirection(DcMotorSimple.Direction.REVERSE);
-            } else {
-                motor.setDirection(DcMotorSimple.Direction.FORWARD);
-            }
-            motor.setPower(0.0);
-        });
+        motorGroup.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+        motorGroup.setDirections(DIRECTIONS);
+        motorGroup.setPower(0.0);
     }
 
     public void stop() {
@@ -61,8 +61,6 @@ public class IntakeSystem {
     }
 
     private void setMotorPowers(double power) {
-        for (DcMotor motor : motors.values()) {
-            motor.setPower(power);
-        }
+        motorGroup.setPower(power);
     }
 }
\ No newline at end of file
@@ -5,7 +5,7 @@ import com.qualcomm.robotcore.hardware.Servo;
 import java.util.EnumMap;
 
 
-public class LatchSystem {
+public class LatchSystem implements Subsystem {
 
     public enum Latch {
         LEFT (0.715, 0.446, false),
@@ -39,12 +39,13 @@ public class LatchSystem {
     }
 
     public EnumMap<Latch, Servo> latches;
+    private static final Latch[] LATCHES = Latch.values();
 
 
     private void initServo() {
-        latches.forEach((name, servo) -> {
-            servo.setPosition(name.upPosition());
-        });
+        for (Latch name : LATCHES) {
+            latches.get(name).setPosition(name.upPosition());
+        }
     }
 
     public LatchSystem(EnumMap<Latch, Servo> map) {
@@ -61,15 +62,15 @@ public class LatchSystem {
     }
 
     public void bothUp() {
-        latches.forEach((name, servo) -> {
+        for (Latch name : LATCHES) {
             up(name);
-        });
+        }
     }
 
     public void bothDown() {
-        latches.forEach((name, servo) -> {
+        for (Latch name : LATCHES) {
             down(name);
-        });
+        }
     }
 
     private void up(Latch servoName) {
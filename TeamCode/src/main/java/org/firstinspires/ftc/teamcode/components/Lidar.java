@@ -3,14 +3,205 @@ package org.firstinspires.ftc.teamcode.components;
 import com.qualcomm.robotcore.hardware.DistanceSensor;
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
 
+import java.util.Arrays;
+
 public class Lidar {
 
+    /**
+     * Notified from the sampling thread when the median distance crosses a threshold
+     */
+    public interface ThresholdListener {
+        void onCross(Lidar lidar, double distanceMm, boolean below);
+    }
+
+    private static final int MAX_LISTENERS = 4;
+    // Readings further than this many median absolute deviations from the median are rejected
+    private static final double OUTLIER_MADS = 3.0;
+    // Readings older than this are left out of the median and filtered estimates
+    private static final long STALE_NANOS = 250_000_000L;
+
     DistanceSensor lidar;
+
+    // Ring of the most recent readings in millimeters and when they were taken (System.nanoTime)
+    private final double[] readings;
+    private final long[] timestamps;
+    private final double[] fresh;
+    private final double[] scratch;
+    private int mHead;
+    private int mCount;
+    private volatile double mLatest = Double.NaN;
+    private volatile long mLatestNanos;
+
+    private final double[] thresholds = new double[MAX_LISTENERS];
+    private final boolean[] below = new boolean[MAX_LISTENERS];
+    private final ThresholdListener[] listeners = new ThresholdListener[MAX_LISTENERS];
+    private int mListenerCount;
+
+    private Thread sampler;
+    private volatile boolean sampling;
+
     public Lidar(DistanceSensor distanceSensor) {
+        this(distanceSensor, 5);
+    }
+
+    /**
+     * @param distanceSensor the REV 2m sensor to read
+     * @param window number of readings the median and outlier filters look at
+     */
+    public Lidar(DistanceSensor distanceSensor, int window) {
         this.lidar = distanceSensor;
+        readings = new double[window];
+        timestamps = new long[window];
+        fresh = new double[window];
+        scratch = new double[window];
     }
 
+    /**
+     * Gets the distance. While sampling this is the latest background reading and does not touch
+     * the bus, otherwise it reads the sensor directly.
+     */
     public double getDistance(DistanceUnit distanceUnit) {
+        if (sampling) {
+            return distanceUnit.fromMm(mLatest);
+        }
         return lidar.getDistance(distanceUnit);
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts reading the sensor on a background thread
+     * @param periodMs time between reads; 0 reads as fast as the bus allows
+     */
+    public void startSampling(long periodMs) {
+        if (sampling) {
+            return;
+        }
+        sampling = true;
+        sampler = new Thread(() -> {
+            while (sampling) {
+                addReading(lidar.getDistance(DistanceUnit.MM), System.nanoTime());
+                if (periodMs > 0) {
+                    try {
+                        Thread.sleep(periodMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Lidar");
+        sampler.start();
+    }
+
+    public void stopSampling() {
+        sampling = false;
+        if (sampler != null) {
+            sampler.interrupt();
+            sampler = null;
+        }
+    }
+
+    /**
+     * Registers a listener that fires when the median distance crosses the threshold.
+     * Listeners run on the sampling thread, so they should only set flags.
+     */
+    public synchronized void addThresholdListener(double thresholdMm, ThresholdListener listener) {
+        if (mListenerCount == MAX_LISTENERS) {
+            throw new IllegalStateException("Too many threshold listeners");
+        }
+        thresholds[mListenerCount] = thresholdMm;
+        below[mListenerCount] = medianLocked(collectFresh(System.nanoTime())) < thresholdMm;
+        listeners[mListenerCount] = listener;
+        mListenerCount++;
+    }
+
+    private synchronized void addReading(double distanceMm, long nanos) {
+        readings[mHead] = distanceMm;
+        timestamps[mHead] = nanos;
+        mHead = (mHead + 1) % readings.length;
+        mCount = Math.min(mCount + 1, readings.length);
+        mLatest = distanceMm;
+        mLatestNanos = nanos;
+
+        if (mListenerCount > 0) {
+            double median = medianLocked(collectFresh(nanos));
+            for (int i = 0; i < mListenerCount; i++) {
+                boolean isBelow = median < thresholds[i];
+                if (isBelow != below[i]) {
+                    below[i] = isBelow;
+                    listeners[i].onCross(this, median, isBelow);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the latest background reading
+     * @return Returns the distance in millimeters, NaN before the first reading
+     */
+    public double getLatest() {
+        return mLatest;
+    }
+
+    /**
+     * Gets how long ago the latest reading was taken
+     * @return Returns the age in milliseconds
+     */
+    public double getLatestAgeMs() {
+        return (System.nanoTime() - mLatestNanos) / 1e6;
+    }
+
+    /**
+     * Gets the median of the fresh readings in the window
+     * @return Returns the distance in millimeters, NaN if there are no fresh readings
+     */
+    public synchronized double getMedian() {
+        return medianLocked(collectFresh(System.nanoTime()));
+    }
+
+    /**
+     * Gets the mean of the fresh readings in the window after dropping outliers, which are
+     * readings too many median absolute deviations from the median
+     * @return Returns the distance in millimeters, NaN if there are no fresh readings
+     */
+    public synchronized double getFiltered() {
+        int n = collectFresh(System.nanoTime());
+        if (n == 0) {
+            return Double.NaN;
+        }
+        double median = medianLocked(n);
+        for (int i = 0; i < n; i++) {
+            scratch[i] = Math.abs(fresh[i] - median);
+        }
+        Arrays.sort(scratch, 0, n);
+        double mad = scratch[n / 2];
+
+        double sum = 0;
+        int inliers = 0;
+        for (int i = 0; i < n; i++) {
+            if (Math.abs(fresh[i] - median) <= OUTLIER_MADS * mad) {
+                sum += fresh[i];
+                inliers++;
+            }
+        }
+        return sum / inliers;
+    }
+
+    // Copies the readings taken within STALE_NANOS of now into fresh, returning how many there are
+    private int collectFresh(long now) {
+        int n = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (now - timestamps[i] <= STALE_NANOS) {
+                fresh[n++] = readings[i];
+            }
+        }
+        return n;
+    }
+
+    private double medianLocked(int n) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        System.arraycopy(fresh, 0, scratch, 0, n);
+        Arrays.sort(scratch, 0, n);
+        return scratch[n / 2];
+    }
+}
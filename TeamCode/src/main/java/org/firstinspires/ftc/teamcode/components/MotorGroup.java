@@ -0,0 +1,73 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+
+import java.util.EnumMap;
+
+/**
+ * A fixed set of motors indexed by the ordinal of an enum, so per-motor settings can live in
+ * plain arrays next to it and every group write is an indexed loop: no iterators, lambdas or
+ * switches on the drive's hot path.
+ */
+public class MotorGroup {
+
+    private final DcMotor[] motors;
+
+    /**
+     * @param map motors by name; every constant of the enum must be present
+     * @param names the enum's values(), giving the index of each motor
+     */
+    public <E extends Enum<E>> MotorGroup(EnumMap<E, DcMotor> map, E[] names) {
+        motors = new DcMotor[names.length];
+        for (E name : names) {
+            motors[name.ordinal()] = map.get(name);
+        }
+    }
+
+    public int size() {
+        return motors.length;
+    }
+
+    public DcMotor get(int index) {
+        return motors[index];
+    }
+
+    public void setPower(double power) {
+        for (int i = 0; i < motors.length; i++) {
+            motors[i].setPower(power);
+        }
+    }
+
+    /**
+     * Sets each motor's power
+     * @param powers indexed like the group
+     */
+    public void setPowers(double[] powers) {
+        for (int i = 0; i < motors.length; i++) {
+            motors[i].setPower(powers[i]);
+        }
+    }
+
+    public void setMode(DcMotor.RunMode mode) {
+        for (int i = 0; i < motors.length; i++) {
+            motors[i].setMode(mode);
+        }
+    }
+
+    public void setDirections(DcMotorSimple.Direction[] directions) {
+        for (int i = 0; i < motors.length; i++) {
+            motors[i].setDirection(directions[i]);
+        }
+    }
+
+    /**
+     * Sets each motor's RUN_TO_POSITION target to a shared target times a per-motor coefficient
+     * @param coefficients indexed like the group
+     */
+    public void setTargetPositions(int target, double[] coefficients) {
+        for (int i = 0; i < motors.length; i++) {
+            motors[i].setTargetPosition((int) (target * coefficients[i]));
+        }
+    }
+}
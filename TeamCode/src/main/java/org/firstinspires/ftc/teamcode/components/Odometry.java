@@ -0,0 +1,135 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKRIGHT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTRIGHT;
+
+/**
+ * Dead-reckons the robot pose on the field from the drive encoders and the IMU heading.
+ * Poses are in millimeters with the origin at the center of the field, and headings are in
+ * radians, counter-clockwise positive (the opposite sign of IMUSystem.getHeading()).
+ */
+public class Odometry {
+
+    private final DriveSystem driveSystem;
+
+    private final int[] ticks = new int[DriveSystem.MotorNames.values().length];
+    private final int[] lastTicks = new int[ticks.length];
+
+    private double mX;
+    private double mY;
+    private double mHeading;
+    // IMU heading that corresponds to a field heading of zero
+    private double mHeadingOffset;
+
+    // Motion during the last update, in the robot frame
+    private double mDeltaForward;
+    private double mDeltaStrafe;
+    private double mDeltaTurn;
+
+    public Odometry(DriveSystem driveSystem) {
+        this.driveSystem = driveSystem;
+        setPose(0, 0, 0);
+    }
+
+    /**
+     * Sets the current pose and re-baselines the encoders
+     * @param x field x in millimeters
+     * @param y field y in millimeters
+     * @param heading field heading in radians
+     */
+    public void setPose(double x, double y, double heading) {
+        driveSystem.getCumulativeTicks(lastTicks);
+        mX = x;
+        mY = y;
+        mHeadingOffset = heading - imuHeading();
+        mHeading = heading;
+        mDeltaForward = 0;
+        mDeltaStrafe = 0;
+        mDeltaTurn = 0;
+    }
+
+    /**
+     * Reads the encoders and the IMU and integrates the motion since the last update.
+     * Must be called every loop.
+     */
+    public void update() {
+        driveSystem.getCumulativeTicks(ticks);
+        int fl = ticks[FRONTLEFT.ordinal()] - lastTicks[FRONTLEFT.ordinal()];
+        int fr = ticks[FRONTRIGHT.ordinal()] - lastTicks[FRONTRIGHT.ordinal()];
+        int bl = ticks[BACKLEFT.ordinal()] - lastTicks[BACKLEFT.ordinal()];
+        int br = ticks[BACKRIGHT.ordinal()] - lastTicks[BACKRIGHT.ordinal()];
+        System.arraycopy(ticks, 0, lastTicks, 0, ticks.length);
+
+        // Mecanum forward kinematics, strafing right is positive
+        mDeltaForward = (fl + fr + bl + br) / (4 * DriveSystem.TICKS_IN_MM);
+        mDeltaStrafe = (fl - fr - bl + br) / (4 * DriveSystem.TICKS_IN_MM);
+        mDeltaTurn = -(fl - fr + bl - br) / (4 * DriveSystem.TICKS_IN_MM * DriveSystem.TURN_RADIUS);
+
+        // Integrate along the mean heading of this step
+        double heading = normalize(imuHeading() + mHeadingOffset);
+        double midHeading = mHeading + normalize(heading - mHeading) / 2;
+        double cos = Math.cos(midHeading);
+        double sin = Math.sin(midHeading);
+        mX += mDeltaForward * cos + mDeltaStrafe * sin;
+        mY += mDeltaForward * sin - mDeltaStrafe * cos;
+        mHeading = heading;
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    public double getHeading() {
+        return mHeading;
+    }
+
+    /**
+     * Gets the forward travel during the last update
+     * @return Returns the distance in millimeters, robot frame
+     */
+    public double getDeltaForward() {
+        return mDeltaForward;
+    }
+
+    /**
+     * Gets the rightward travel during the last update
+     * @return Returns the distance in millimeters, robot frame
+     */
+    public double getDeltaStrafe() {
+        return mDeltaStrafe;
+    }
+
+    /**
+     * Gets the turn the encoders saw during the last update, which unlike the heading suffers
+     * from wheel slip
+     * @return Returns the turn in radians, counter-clockwise
+     */
+    public double getDeltaTurn() {
+        return mDeltaTurn;
+    }
+
+    private double imuHeading() {
+        return Math.toRadians(-driveSystem.imuSystem.getHeading());
+    }
+
+    /**
+     * Wraps an angle into the range -PI to PI
+     * @param radians angle to wrap
+     * @return Returns the wrapped angle
+     */
+    public static double normalize(double radians) {
+        while (radians > Math.PI) {
+            radians -= 2 * Math.PI;
+        }
+        while (radians <= -Math.PI) {
+            radians += 2 * Math.PI;
+        }
+        return radians;
+    }
+}
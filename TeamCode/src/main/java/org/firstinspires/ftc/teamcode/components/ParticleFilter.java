@@ -0,0 +1,243 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Monte Carlo localization against the field walls. Odometry moves the particles, the IMU pins
+ * their heading, and range sensors weight them by how well a ray cast from each particle matches
+ * the measured distance. Particles are stored as parallel primitive arrays so an update touches
+ * no objects. A few hundred particles against a couple of sensors are cheap enough to weigh on
+ * the caller's thread, which beats handing the work to other threads every loop.
+ */
+public class ParticleFilter {
+
+    public static final String TAG = "ParticleFilter";
+
+    /**
+     * Where a range sensor sits on the robot, in the robot frame
+     */
+    public static class SensorMount {
+        // Millimeters forward of and left of the robot center
+        public final float forward;
+        public final float left;
+        // Radians counter-clockwise from straight ahead
+        public final float angle;
+
+        public SensorMount(float forward, float left, float angle) {
+            this.forward = forward;
+            this.left = left;
+            this.angle = angle;
+        }
+    }
+
+    // The REV 2m sensor reports junk past this
+    public static final float MAX_RANGE = 1200;
+    private static final double TRANSLATION_NOISE = 0.05;   // fraction of the distance travelled
+    private static final double HEADING_NOISE = Math.toRadians(1.0);
+    private static final double RANGE_SIGMA = 40;          // millimeters
+    // Floor on each range likelihood so a single bad reading cannot wipe out every particle
+    private static final double OUTLIER_LIKELIHOOD = 0.05;
+
+    private final FieldMap fieldMap;
+    private final SensorMount[] mounts;
+    private final Random random = new Random();
+    private final int count;
+
+    // Particle store, one entry per particle in each array
+    private float[] x;
+    private float[] y;
+    private float[] heading;
+    private final double[] weights;
+    private float[] nextX;
+    private float[] nextY;
+    private float[] nextHeading;
+
+    // Latest ranges handed to updateRanges, NaN when a sensor has no valid reading
+    private final float[] ranges;
+
+    private double mX;
+    private double mY;
+    private double mHeading;
+
+    /**
+     * @param fieldMap walls to cast against
+     * @param mounts range sensor placements, in the order their readings are passed in
+     * @param count number of particles
+     */
+    public ParticleFilter(FieldMap fieldMap, SensorMount[] mounts, int count) {
+        this.fieldMap = fieldMap;
+        this.mounts = mounts;
+        this.count = count;
+        x = new float[count];
+        y = new float[count];
+        heading = new float[count];
+        weights = new double[count];
+        nextX = new float[count];
+        nextY = new float[count];
+        nextHeading = new float[count];
+        ranges = new float[mounts.length];
+    }
+
+    /**
+     * Scatters the particles around a starting pose
+     * @param spread standard deviation of the position in millimeters
+     */
+    public void initialize(double startX, double startY, double startHeading, double spread) {
+        for (int i = 0; i < count; i++) {
+            x[i] = (float) (startX + random.nextGaussian() * spread);
+            y[i] = (float) (startY + random.nextGaussian() * spread);
+            heading[i] = (float) (startHeading + random.nextGaussian() * HEADING_NOISE);
+            weights[i] = 1.0 / count;
+        }
+        estimate();
+    }
+
+    /**
+     * Moves every particle by the odometry step, with noise proportional to the step
+     * @param deltaForward forward travel in millimeters, robot frame
+     * @param deltaStrafe rightward travel in millimeters, robot frame
+     * @param imuHeading absolute heading in radians, counter-clockwise positive
+     */
+    public void predict(double deltaForward, double deltaStrafe, double imuHeading) {
+        double noise = TRANSLATION_NOISE * Math.hypot(deltaForward, deltaStrafe);
+        for (int i = 0; i < count; i++) {
+            double theta = imuHeading + random.nextGaussian() * HEADING_NOISE;
+            double forward = deltaForward + random.nextGaussian() * noise;
+            double strafe = deltaStrafe + random.nextGaussian() * noise;
+            double cos = Math.cos(theta);
+            double sin = Math.sin(theta);
+            x[i] += (float) (forward * cos + strafe * sin);
+            y[i] += (float) (forward * sin - strafe * cos);
+            heading[i] = (float) theta;
+        }
+    }
+
+    /**
+     * Weights the particles by the range readings, resamples and updates the estimate
+     * @param readings one range per mount in millimeters; NaN or out of range readings are ignored
+     */
+    public void updateRanges(double[] readings) {
+        boolean any = false;
+        for (int i = 0; i < ranges.length; i++) {
+            boolean valid = readings[i] > 0 && readings[i] < MAX_RANGE;
+            ranges[i] = valid ? (float) readings[i] : Float.NaN;
+            any |= valid;
+        }
+        if (!any) {
+            estimate();
+            return;
+        }
+
+        weigh();
+        normalizeWeights();
+        if (effectiveSampleSize() < count / 2.0) {
+            resample();
+        }
+        estimate();
+    }
+
+    private void weigh() {
+        double twoSigmaSquared = 2 * RANGE_SIGMA * RANGE_SIGMA;
+        for (int i = 0; i < count; i++) {
+            double likelihood = 1;
+            float cos = (float) Math.cos(heading[i]);
+            float sin = (float) Math.sin(heading[i]);
+            for (int s = 0; s < mounts.length; s++) {
+                if (Float.isNaN(ranges[s])) {
+                    continue;
+                }
+                SensorMount mount = mounts[s];
+                float sensorX = x[i] + mount.forward * cos - mount.left * sin;
+                float sensorY = y[i] + mount.forward * sin + mount.left * cos;
+                float expected = fieldMap.castRay(sensorX, sensorY, heading[i] + mount.angle, MAX_RANGE);
+                double error = expected - ranges[s];
+                likelihood *= OUTLIER_LIKELIHOOD + Math.exp(-error * error / twoSigmaSquared);
+            }
+            // Particles that have left the field are impossible
+            weights[i] *= fieldMap.distanceAt(x[i], y[i]) > 0 ? likelihood : 0;
+        }
+    }
+
+    private void normalizeWeights() {
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += weights[i];
+        }
+        if (total <= 0) {
+            Log.w(TAG, "All particles rejected, keeping previous distribution");
+            for (int i = 0; i < count; i++) {
+                weights[i] = 1.0 / count;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            weights[i] /= total;
+        }
+    }
+
+    private double effectiveSampleSize() {
+        double sumSquares = 0;
+        for (int i = 0; i < count; i++) {
+            sumSquares += weights[i] * weights[i];
+        }
+        return 1 / sumSquares;
+    }
+
+    // Low-variance (systematic) resampling into the spare arrays, which are then swapped in
+    private void resample() {
+        double step = 1.0 / count;
+        double target = random.nextDouble() * step;
+        double cumulative = weights[0];
+        int source = 0;
+        for (int i = 0; i < count; i++) {
+            while (target > cumulative && source < count - 1) {
+                source++;
+                cumulative += weights[source];
+            }
+            nextX[i] = x[source];
+            nextY[i] = y[source];
+            nextHeading[i] = heading[source];
+            target += step;
+        }
+        float[] swap = x;
+        x = nextX;
+        nextX = swap;
+        swap = y;
+        y = nextY;
+        nextY = swap;
+        swap = heading;
+        heading = nextHeading;
+        nextHeading = swap;
+        for (int i = 0; i < count; i++) {
+            weights[i] = step;
+        }
+    }
+
+    private void estimate() {
+        double sumX = 0, sumY = 0, sumCos = 0, sumSin = 0, total = 0;
+        for (int i = 0; i < count; i++) {
+            sumX += weights[i] * x[i];
+            sumY += weights[i] * y[i];
+            sumCos += weights[i] * Math.cos(heading[i]);
+            sumSin += weights[i] * Math.sin(heading[i]);
+            total += weights[i];
+        }
+        mX = sumX / total;
+        mY = sumY / total;
+        mHeading = Math.atan2(sumSin, sumCos);
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    public double getHeading() {
+        return mHeading;
+    }
+}
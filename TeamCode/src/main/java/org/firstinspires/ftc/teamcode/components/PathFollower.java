@@ -0,0 +1,194 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Follows a chain of field waypoints without stopping at each one, using pure pursuit: every
+ * loop it finds the point where a circle of the lookahead radius around the robot crosses the
+ * path, furthest along, and drives toward it. Being mecanum, the robot translates toward that
+ * point in any direction while its heading is blended between the headings of the waypoints on
+ * either side, so it can turn while it drives.
+ *
+ * Coordinates follow Odometry: millimeters from the field center, headings in radians,
+ * counter-clockwise positive. The outputs are in the stick convention of DriveSystem.drive.
+ * Nothing is allocated after construction.
+ */
+public class PathFollower {
+
+    private static final int MAX_WAYPOINTS = 16;
+
+    // Power per millimeter from the end once within the lookahead, and the least power used to
+    // finish the approach
+    private static final double K_END = 0.004;
+    private static final double MIN_POWER = 0.2;
+    // Turn power per radian of heading error
+    private static final double K_HEADING = 1.2;
+    private static final double MAX_TURN = 0.6;
+    // Finished when this close to the last waypoint
+    private static final double POSITION_TOLERANCE = 25;
+    private static final double HEADING_TOLERANCE = Math.toRadians(2);
+
+    private final double[] xs = new double[MAX_WAYPOINTS];
+    private final double[] ys = new double[MAX_WAYPOINTS];
+    private final double[] headings = new double[MAX_WAYPOINTS];
+    private int mCount;
+    // Segment from waypoint mSegment to mSegment + 1 that the robot is on; only moves forward
+    private int mSegment;
+    private double mLookahead;
+    private double mMaxPower;
+
+    // Outputs from the last update
+    private double mTurn;
+    private double mStrafe;
+    private double mForward;
+
+    /**
+     * Clears the path
+     */
+    public void clear() {
+        mCount = 0;
+        mSegment = 0;
+    }
+
+    /**
+     * Adds a waypoint to the end of the path. The first one is usually where the robot is.
+     * @param x field x in millimeters
+     * @param y field y in millimeters
+     * @param heading heading to have on reaching it, radians
+     */
+    public void addWaypoint(double x, double y, double heading) {
+        if (mCount == MAX_WAYPOINTS) {
+            throw new IllegalStateException("Too many waypoints");
+        }
+        xs[mCount] = x;
+        ys[mCount] = y;
+        headings[mCount] = heading;
+        mCount++;
+    }
+
+    /**
+     * Starts following the waypoints added since clear()
+     * @param lookahead lookahead radius in millimeters; shorter follows corners more tightly,
+     *                  longer is smoother
+     * @param maxPower power to drive at, 0 to 1
+     */
+    public void start(double lookahead, double maxPower) {
+        if (mCount < 2) {
+            throw new IllegalStateException("A path needs at least two waypoints");
+        }
+        mLookahead = lookahead;
+        mMaxPower = maxPower;
+        mSegment = 0;
+    }
+
+    /**
+     * Runs one cycle of the follower from the current pose. Pass the outputs to DriveSystem.drive.
+     * @param x field x in millimeters
+     * @param y field y in millimeters
+     * @param heading field heading in radians
+     * @return Returns true, with all outputs zero, once at the last waypoint
+     */
+    public boolean update(double x, double y, double heading) {
+        int last = mCount - 1;
+        double toEndX = xs[last] - x;
+        double toEndY = ys[last] - y;
+        double endDistance = Math.hypot(toEndX, toEndY);
+        double headingError = Odometry.normalize(headings[last] - heading);
+        if (endDistance < POSITION_TOLERANCE && Math.abs(headingError) < HEADING_TOLERANCE) {
+            mTurn = 0;
+            mStrafe = 0;
+            mForward = 0;
+            return true;
+        }
+
+        double targetX;
+        double targetY;
+        double power;
+        if (endDistance <= mLookahead) {
+            // Final approach: head straight for the end and slow down
+            mSegment = last - 1;
+            targetX = xs[last];
+            targetY = ys[last];
+            power = endDistance < POSITION_TOLERANCE ? 0
+                    : Math.max(MIN_POWER, Math.min(mMaxPower, K_END * endDistance));
+        } else {
+            targetX = xs[mSegment + 1];
+            targetY = ys[mSegment + 1];
+            for (int i = mSegment; i < last; i++) {
+                double t = lookaheadIntersection(i, x, y);
+                if (!Double.isNaN(t)) {
+                    mSegment = i;
+                    targetX = xs[i] + t * (xs[i + 1] - xs[i]);
+                    targetY = ys[i] + t * (ys[i + 1] - ys[i]);
+                }
+            }
+            power = mMaxPower;
+        }
+
+        // Heading blended along the current segment by how far along it the robot is
+        int i = mSegment;
+        double segmentX = xs[i + 1] - xs[i];
+        double segmentY = ys[i + 1] - ys[i];
+        double lengthSquared = segmentX * segmentX + segmentY * segmentY;
+        double along = lengthSquared == 0 ? 1
+                : ((x - xs[i]) * segmentX + (y - ys[i]) * segmentY) / lengthSquared;
+        // Once in position only the final heading is left to reach
+        along = endDistance < POSITION_TOLERANCE ? 1 : Math.max(0, Math.min(1, along));
+        double targetHeading = headings[i] + along * Odometry.normalize(headings[i + 1] - headings[i]);
+        headingError = Odometry.normalize(targetHeading - heading);
+
+        // Field direction to the lookahead point, turned into the robot frame
+        double dx = targetX - x;
+        double dy = targetY - y;
+        double distance = Math.hypot(dx, dy);
+        double forward = 0;
+        double right = 0;
+        if (distance > 0) {
+            double cos = Math.cos(heading);
+            double sin = Math.sin(heading);
+            forward = (dx * cos + dy * sin) / distance * power;
+            right = (dx * sin - dy * cos) / distance * power;
+        }
+
+        // A counter-clockwise error needs a left (negative) turn on the stick
+        mTurn = -Math.max(-MAX_TURN, Math.min(MAX_TURN, K_HEADING * headingError));
+        mStrafe = right;
+        mForward = -forward;
+        return false;
+    }
+
+    public double getTurn() {
+        return mTurn;
+    }
+
+    public double getStrafe() {
+        return mStrafe;
+    }
+
+    public double getForward() {
+        return mForward;
+    }
+
+    /**
+     * Gets which segment is being followed
+     * @return Returns the index of the waypoint at its start
+     */
+    public int getSegment() {
+        return mSegment;
+    }
+
+    // Where the lookahead circle leaves segment i, as a fraction along it; NaN if it doesn't
+    private double lookaheadIntersection(int i, double x, double y) {
+        double dx = xs[i + 1] - xs[i];
+        double dy = ys[i + 1] - ys[i];
+        double fx = xs[i] - x;
+        double fy = ys[i] - y;
+        double a = dx * dx + dy * dy;
+        double b = 2 * (fx * dx + fy * dy);
+        double c = fx * fx + fy * fy - mLookahead * mLookahead;
+        double discriminant = b * b - 4 * a * c;
+        if (a == 0 || discriminant < 0) {
+            return Double.NaN;
+        }
+        double t = (-b + Math.sqrt(discriminant)) / (2 * a);
+        return t >= 0 && t <= 1 ? t : Double.NaN;
+    }
+}
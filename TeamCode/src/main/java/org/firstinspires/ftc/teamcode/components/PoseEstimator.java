@@ -0,0 +1,274 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Extended Kalman filter for the robot pose (x, y, heading), fusing the three sources we have:
+ * it predicts from the drive encoders' motion, corrects the heading from the IMU every loop, and
+ * corrects the whole pose from camera fixes whenever one arrives.
+ *
+ * Camera fixes describe where the robot was when the frame was taken, some time before they
+ * arrive. The filter keeps a short history of its steps, so a late fix is applied at the step
+ * it belongs to and the steps since are replayed on top of it.
+ *
+ * Poses follow Odometry: millimeters from the field center, radians counter-clockwise.
+ * All state lives in preallocated arrays, so nothing is allocated per loop.
+ */
+public class PoseEstimator {
+
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int HEADING = 2;
+    private static final int N = 3;
+
+    // Steps of history kept for late fixes; at 100 loops a second this is over half a second
+    private static final int HISTORY = 64;
+
+    // Encoder noise: variance added per millimeter travelled (mm^2/mm) and per radian turned
+    // (rad^2/rad), plus a floor on heading variance per step. Growing the variance, rather than
+    // the standard deviation, with distance keeps the uncertainty of a long drive from shrinking
+    // just because it was taken in more, smaller steps.
+    private static final double TRANSLATION_VARIANCE = 2.0;
+    private static final double TURN_VARIANCE = 0.002;
+    private static final double MIN_HEADING_VARIANCE = 1e-8;
+    // Measurement standard deviations
+    private static final double IMU_HEADING_NOISE = Math.toRadians(0.5);
+    private static final double VISION_POSITION_NOISE = 50;
+    private static final double VISION_HEADING_NOISE = Math.toRadians(3);
+    // Fixes further than this many standard deviations from the estimate are ignored
+    private static final double GATE = 5;
+
+    private final double[] state = new double[N];
+    // Covariance, row major
+    private final double[] covariance = new double[N * N];
+    private final double[] scratch = new double[N * N];
+    private final double[] jacobian = new double[N * N];
+
+    // Ring buffer of steps: when each was taken, its inputs, and the state after it
+    private final long[] stepNanos = new long[HISTORY];
+    private final double[] stepMotion = new double[HISTORY * N];
+    private final double[] stepImuHeading = new double[HISTORY];
+    private final double[] stepState = new double[HISTORY * N];
+    private final double[] stepCovariance = new double[HISTORY * N * N];
+    private int mNewest = -1;
+    private int mSteps;
+
+    private int mFixesUsed;
+    private int mFixesRejected;
+
+    /**
+     * Sets the pose and how sure of it we are, and forgets the history
+     * @param sigmaPosition standard deviation of x and y, millimeters
+     * @param sigmaHeading standard deviation of the heading, radians
+     */
+    public void setPose(double x, double y, double heading, double sigmaPosition, double sigmaHeading) {
+        state[X] = x;
+        state[Y] = y;
+        state[HEADING] = Odometry.normalize(heading);
+        for (int i = 0; i < N * N; i++) {
+            covariance[i] = 0;
+        }
+        covariance[X * N + X] = sigmaPosition * sigmaPosition;
+        covariance[Y * N + Y] = sigmaPosition * sigmaPosition;
+        covariance[HEADING * N + HEADING] = sigmaHeading * sigmaHeading;
+        mNewest = -1;
+        mSteps = 0;
+    }
+
+    /**
+     * Runs one loop of the filter: predicts from the encoders, then corrects from the IMU
+     * @param nanos System.nanoTime() of the readings
+     * @param forward forward travel since the last step, millimeters
+     * @param strafe rightward travel since the last step, millimeters
+     * @param turn counter-clockwise turn since the last step from the encoders, radians
+     * @param imuHeading field heading from the IMU, radians, e.g. Odometry.getHeading()
+     */
+    public void update(long nanos, double forward, double strafe, double turn, double imuHeading) {
+        predict(forward, strafe, turn);
+        correct(HEADING, imuHeading, IMU_HEADING_NOISE * IMU_HEADING_NOISE);
+
+        mNewest = (mNewest + 1) % HISTORY;
+        mSteps = Math.min(mSteps + 1, HISTORY);
+        stepNanos[mNewest] = nanos;
+        stepMotion[mNewest * N + X] = forward;
+        stepMotion[mNewest * N + Y] = strafe;
+        stepMotion[mNewest * N + HEADING] = turn;
+        stepImuHeading[mNewest] = imuHeading;
+        saveStep(mNewest);
+    }
+
+    /**
+     * Corrects the pose from a camera fix
+     * @param nanos System.nanoTime() when the frame the fix came from was taken
+     * @return Returns false if the fix was ignored, for being older than the history or too far
+     *         from the estimate to be believed
+     */
+    public boolean addFix(long nanos, double x, double y, double heading) {
+        // Newest step taken at or before the frame
+        int step = -1;
+        for (int k = 0; k < mSteps; k++) {
+            int index = (mNewest - k + HISTORY) % HISTORY;
+            if (stepNanos[index] <= nanos) {
+                step = index;
+                break;
+            }
+        }
+        if (step < 0) {
+            mFixesRejected++;
+            return false;
+        }
+
+        loadStep(step);
+        double positionVariance = VISION_POSITION_NOISE * VISION_POSITION_NOISE;
+        double headingVariance = VISION_HEADING_NOISE * VISION_HEADING_NOISE;
+        if (!withinGate(X, x, positionVariance) || !withinGate(Y, y, positionVariance)
+                || !withinGate(HEADING, heading, headingVariance)) {
+            loadStep(mNewest);
+            mFixesRejected++;
+            return false;
+        }
+        correct(X, x, positionVariance);
+        correct(Y, y, positionVariance);
+        correct(HEADING, heading, headingVariance);
+        saveStep(step);
+
+        // Replay everything since
+        for (int index = step; index != mNewest; ) {
+            index = (index + 1) % HISTORY;
+            predict(stepMotion[index * N + X], stepMotion[index * N + Y], stepMotion[index * N + HEADING]);
+            correct(HEADING, stepImuHeading[index], IMU_HEADING_NOISE * IMU_HEADING_NOISE);
+            saveStep(index);
+        }
+        mFixesUsed++;
+        return true;
+    }
+
+    public double getX() {
+        return state[X];
+    }
+
+    public double getY() {
+        return state[Y];
+    }
+
+    public double getHeading() {
+        return state[HEADING];
+    }
+
+    /**
+     * Gets the uncertainty of the position
+     * @return Returns the standard deviation along the worse direction, millimeters
+     */
+    public double getPositionSigma() {
+        // Largest eigenvalue of the position block
+        double a = covariance[X * N + X];
+        double b = covariance[X * N + Y];
+        double d = covariance[Y * N + Y];
+        double largest = (a + d) / 2 + Math.sqrt((a - d) * (a - d) / 4 + b * b);
+        return Math.sqrt(largest);
+    }
+
+    /**
+     * Gets the uncertainty of the heading
+     * @return Returns the standard deviation, radians
+     */
+    public double getHeadingSigma() {
+        return Math.sqrt(covariance[HEADING * N + HEADING]);
+    }
+
+    /**
+     * Copies out the covariance
+     * @param out row-major 3x3 array of x, y and heading
+     */
+    public void getCovariance(double[] out) {
+        System.arraycopy(covariance, 0, out, 0, N * N);
+    }
+
+    public int getFixesUsed() {
+        return mFixesUsed;
+    }
+
+    public int getFixesRejected() {
+        return mFixesRejected;
+    }
+
+    // Moves the state by robot-frame motion along the mean heading of the step, and grows the
+    // covariance through the motion's Jacobian plus noise in proportion to the motion
+    private void predict(double forward, double strafe, double turn) {
+        double heading = state[HEADING] + turn / 2;
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        state[X] += forward * cos + strafe * sin;
+        state[Y] += forward * sin - strafe * cos;
+        state[HEADING] = Odometry.normalize(state[HEADING] + turn);
+
+        // P = F P F' with F the identity plus the heading column
+        for (int i = 0; i < N * N; i++) {
+            jacobian[i] = i % (N + 1) == 0 ? 1 : 0;
+        }
+        jacobian[X * N + HEADING] = -forward * sin + strafe * cos;
+        jacobian[Y * N + HEADING] = forward * cos + strafe * sin;
+        multiply(jacobian, covariance, scratch, false);
+        multiply(scratch, jacobian, covariance, true);
+
+        double translation = TRANSLATION_VARIANCE * (Math.abs(forward) + Math.abs(strafe));
+        covariance[X * N + X] += translation;
+        covariance[Y * N + Y] += translation;
+        covariance[HEADING * N + HEADING] += TURN_VARIANCE * Math.abs(turn) + MIN_HEADING_VARIANCE;
+    }
+
+    // Kalman update from a direct measurement of one state variable
+    private void correct(int variable, double measured, double variance) {
+        double innovation = measured - state[variable];
+        if (variable == HEADING) {
+            innovation = Odometry.normalize(innovation);
+        }
+        double s = covariance[variable * N + variable] + variance;
+        for (int i = 0; i < N; i++) {
+            scratch[i] = covariance[i * N + variable] / s;
+        }
+        for (int i = 0; i < N; i++) {
+            state[i] += scratch[i] * innovation;
+        }
+        state[HEADING] = Odometry.normalize(state[HEADING]);
+        // P = P - K P[variable, :], using the row before it changes
+        for (int j = 0; j < N; j++) {
+            scratch[N + j] = covariance[variable * N + j];
+        }
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                covariance[i * N + j] -= scratch[i] * scratch[N + j];
+            }
+        }
+    }
+
+    private boolean withinGate(int variable, double measured, double variance) {
+        double innovation = measured - state[variable];
+        if (variable == HEADING) {
+            innovation = Odometry.normalize(innovation);
+        }
+        double s = covariance[variable * N + variable] + variance;
+        return innovation * innovation <= GATE * GATE * s;
+    }
+
+    // out = a b, or a b' when transposeB is set
+    private static void multiply(double[] a, double[] b, double[] out, boolean transposeB) {
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) {
+                double sum = 0;
+                for (int k = 0; k < N; k++) {
+                    sum += a[i * N + k] * (transposeB ? b[j * N + k] : b[k * N + j]);
+                }
+                out[i * N + j] = sum;
+            }
+        }
+    }
+
+    private void saveStep(int index) {
+        System.arraycopy(state, 0, stepState, index * N, N);
+        System.arraycopy(covariance, 0, stepCovariance, index * N * N, N * N);
+    }
+
+    private void loadStep(int index) {
+        System.arraycopy(stepState, index * N, state, 0, N);
+        System.arraycopy(stepCovariance, index * N * N, covariance, 0, N * N);
+    }
+}
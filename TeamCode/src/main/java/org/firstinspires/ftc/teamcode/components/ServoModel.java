@@ -0,0 +1,118 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.hardware.Servo;
+
+import org.firstinspires.ftc.teamcode.components.ArmSystem.ServoNames;
+
+import java.util.EnumMap;
+
+/**
+ * Servos don't report where they are, so this estimates it: every command is timestamped and the
+ * servo is assumed to sweep toward it at a calibrated speed. That gives an arrival time per servo
+ * that scales with how far it actually has to travel, instead of a fixed wait.
+ */
+public class ServoModel {
+
+    // Sweep speed of each servo under the load of the arm, in position units (0 - 1) per second,
+    // indexed by ServoNames ordinal. Tune these if moves are being cut short.
+    private static final double[] SPEED = {
+            2.5,    // GRIPPER
+            2.0,    // WRIST
+            1.6,    // ELBOW
+            1.2     // PIVOT
+    };
+    // Extra time for the servo to settle once it gets there
+    private static final long SETTLE_NANOS = 40_000_000L;
+
+    private final EnumMap<ServoNames, Servo> servos;
+    private final int count = ServoNames.values().length;
+    // Where each servo was estimated to be when it was last commanded (NaN if unknown),
+    // where it was sent, and when it started and should finish
+    private final double[] start = new double[count];
+    private final double[] target = new double[count];
+    private final long[] startNanos = new long[count];
+    private final long[] arrivalNanos = new long[count];
+
+    public ServoModel(EnumMap<ServoNames, Servo> servos) {
+        this.servos = servos;
+        for (int i = 0; i < count; i++) {
+            start[i] = Double.NaN;
+            target[i] = Double.NaN;
+        }
+    }
+
+    /**
+     * Sends a servo to a position and records when it should get there
+     */
+    public void setPosition(ServoNames name, double position) {
+        int i = name.ordinal();
+        long now = System.nanoTime();
+        double from = estimatePosition(name, now);
+        // If we have no idea where the servo is, including partway through a move that started
+        // from an unknown position, assume it has to cross its whole range
+        double travel = Double.isNaN(from) ? 1.0 : Math.abs(position - from);
+        if (position != target[i]) {
+            start[i] = from;
+            target[i] = position;
+            startNanos[i] = now;
+            arrivalNanos[i] = now + (long) (travel / SPEED[i] * 1e9) + (travel > 0 ? SETTLE_NANOS : 0);
+        }
+        servos.get(name).setPosition(position);
+    }
+
+    /**
+     * Gets the calibrated sweep speed of a servo
+     * @return Returns the speed in position units per second
+     */
+    public static double getSpeed(ServoNames name) {
+        return SPEED[name.ordinal()];
+    }
+
+    public double getTarget(ServoNames name) {
+        return target[name.ordinal()];
+    }
+
+    public boolean isArrived(ServoNames name) {
+        return System.nanoTime() >= arrivalNanos[name.ordinal()];
+    }
+
+    /**
+     * Checks whether the pivot, elbow and wrist have all arrived
+     */
+    public boolean isArmArrived() {
+        long now = System.nanoTime();
+        return now >= arrivalNanos[ServoNames.PIVOT.ordinal()]
+                && now >= arrivalNanos[ServoNames.ELBOW.ordinal()]
+                && now >= arrivalNanos[ServoNames.WRIST.ordinal()];
+    }
+
+    /**
+     * Gets how long until a servo should arrive
+     * @return Returns the time remaining in milliseconds, 0 if it has arrived
+     */
+    public double getRemainingMs(ServoNames name) {
+        return Math.max(0, arrivalNanos[name.ordinal()] - System.nanoTime()) / 1e6;
+    }
+
+    /**
+     * Estimates where a servo is, interpolating along its last move
+     * @return Returns the position, NaN if the servo has never been commanded or is still on
+     * its way from a position that wasn't known
+     */
+    public double estimatePosition(ServoNames name) {
+        return estimatePosition(name, System.nanoTime());
+    }
+
+    private double estimatePosition(ServoNames name, long now) {
+        int i = name.ordinal();
+        if (now >= arrivalNanos[i]) {
+            return target[i];
+        }
+        if (Double.isNaN(start[i])) {
+            return Double.NaN;
+        }
+        double moved = SPEED[i] * (now - startNanos[i]) / 1e9;
+        double distance = target[i] - start[i];
+        return Math.abs(distance) <= moved ? target[i] : start[i] + Math.signum(distance) * moved;
+    }
+}
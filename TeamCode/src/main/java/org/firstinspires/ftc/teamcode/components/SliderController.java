@@ -0,0 +1,159 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.util.Range;
+
+/**
+ * Drives the slider along a trapezoidal profile. The output power is a feedforward from the
+ * profile (gravity, velocity and acceleration terms) plus PID on the position error, so the
+ * slider arrives on target without the overshoot of a bang-bang move.
+ * All positions are in encoder ticks and times in seconds.
+ */
+public class SliderController {
+
+    // Profile limits
+    static final double MAX_VELOCITY = 2000;
+    static final double MAX_ACCELERATION = 8000;
+
+    // Feedforward: power to hold against gravity, per tick/s and per tick/s^2
+    private static final double K_G = 0.08;
+    private static final double K_V = 1.0 / 2600;
+    private static final double K_A = 0.00002;
+    // Feedback on position error in ticks
+    private static final double K_P = 0.006;
+    private static final double K_I = 0.002;
+    private static final double K_D = 0.0002;
+    private static final double MAX_INTEGRAL = 100;
+
+    // Arrived once within these of the target after the profile has finished
+    private static final double POSITION_TOLERANCE = 15;
+    private static final double VELOCITY_TOLERANCE = 60;
+    // Encoder samples the velocity is fit over
+    private static final int VELOCITY_WINDOW = 6;
+
+    // Stalled if pushing at least this hard while moving slower than this for this long
+    private static final double STALL_POWER = 0.4;
+    private static final double STALL_VELOCITY = 40;
+    private static final long STALL_NANOS = 250_000_000L;
+
+    private final TrapezoidProfile profile = new TrapezoidProfile();
+    private final VelocityEstimator velocityEstimator = new VelocityEstimator(VELOCITY_WINDOW);
+    private double mTarget;
+    private long mStartNanos;
+    private long mLastNanos;
+    private double mVelocity;
+    private double mIntegral;
+    private double mLastError;
+    private boolean mArrived = true;
+    private long mSlowSinceNanos;
+    private boolean mStalled;
+
+    /**
+     * Plans a move from the current position, starting at rest
+     * @param position current slider position
+     * @param target target slider position
+     */
+    public void start(double position, double target) {
+        mTarget = target;
+        profile.plan(position, target, MAX_VELOCITY, MAX_ACCELERATION);
+        mStartNanos = System.nanoTime();
+        mLastNanos = mStartNanos;
+        velocityEstimator.reset();
+        velocityEstimator.add(mStartNanos, position);
+        mVelocity = 0;
+        mIntegral = 0;
+        mLastError = 0;
+        mArrived = false;
+        mSlowSinceNanos = 0;
+        mStalled = false;
+    }
+
+    /**
+     * Runs one cycle of the controller
+     * @param position current slider position
+     * @return Returns the motor power to apply
+     */
+    public double update(double position) {
+        long now = System.nanoTime();
+        double dt = (now - mLastNanos) / 1e9;
+        mLastNanos = now;
+        velocityEstimator.add(now, position);
+        mVelocity = velocityEstimator.getVelocity();
+
+        double t = (now - mStartNanos) / 1e9;
+        double error = profile.getPosition(t) - position;
+        if (profile.isFinished(t) && Math.abs(mTarget - position) <= POSITION_TOLERANCE
+                && Math.abs(mVelocity) <= VELOCITY_TOLERANCE) {
+            mArrived = true;
+        }
+
+        if (dt > 0) {
+            mIntegral = Range.clip(mIntegral + error * dt, -MAX_INTEGRAL, MAX_INTEGRAL);
+        }
+        double derivative = dt > 0 ? (error - mLastError) / dt : 0;
+        mLastError = error;
+
+        double power = K_G
+                + K_V * profile.getVelocity(t)
+                + K_A * profile.getAcceleration(t)
+                + K_P * error + K_I * mIntegral + K_D * derivative;
+        power = Range.clip(power, -1, 1);
+
+        // Pushing hard and not moving means a hard stop or something caught in the slider
+        if (Math.abs(power) >= STALL_POWER && Math.abs(mVelocity) < STALL_VELOCITY
+                && velocityEstimator.isFull()) {
+            if (mSlowSinceNanos == 0) {
+                mSlowSinceNanos = now;
+            } else if (now - mSlowSinceNanos >= STALL_NANOS) {
+                mStalled = true;
+            }
+        } else {
+            mSlowSinceNanos = 0;
+        }
+        return power;
+    }
+
+    /**
+     * Checks whether the slider has stopped moving while being driven hard during this move.
+     * Cleared when the next move starts.
+     */
+    public boolean isStalled() {
+        return mStalled;
+    }
+
+    /**
+     * Looks ahead along the planned move
+     * @param secondsFromNow how far ahead to look
+     * @return Returns where the profile puts the slider then, in ticks
+     */
+    public double getPlannedPosition(double secondsFromNow) {
+        return profile.getPosition((System.nanoTime() - mStartNanos) / 1e9 + secondsFromNow);
+    }
+
+    /**
+     * Gets how long until the planned move finishes
+     * @return Returns the time in seconds, 0 if the profile has finished
+     */
+    public double getRemainingTime() {
+        return Math.max(0, profile.getDuration() - (System.nanoTime() - mStartNanos) / 1e9);
+    }
+
+    public boolean isArrived() {
+        return mArrived;
+    }
+
+    /**
+     * Gets the velocity estimated at the last update
+     * @return Returns the velocity in ticks per second
+     */
+    public double getVelocity() {
+        return mVelocity;
+    }
+
+    /**
+     * Gets how long the planned move takes
+     * @return Returns the duration in seconds
+     */
+    public double getDuration() {
+        return profile.getDuration();
+    }
+}
@@ -0,0 +1,120 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKRIGHT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTRIGHT;
+
+/**
+ * Notices the mecanum wheels slipping, two ways:
+ * - Four wheels give three ways of moving (forward, strafe, turn), so one combination of their
+ *   speeds, front minus back, is always zero while every wheel grips. A wheel spinning out
+ *   breaks it.
+ * - The turn rate the encoders imply has to match the IMU's; wheels slipping unevenly make the
+ *   encoders report a turn that didn't happen, or miss one that did.
+ * Speeds come from fitting a line through the last few samples, see VelocityEstimator.
+ */
+public class SlipDetector {
+
+    // Slipping if the wheels disagree by more than this, mm/s
+    private static final double RESIDUAL_LIMIT = 150;
+    // or the encoder and IMU turn rates by more than this, radians/s
+    private static final double TURN_RATE_LIMIT = 0.5;
+    private static final int VELOCITY_WINDOW = 4;
+
+    private final VelocityEstimator[] wheels = new VelocityEstimator[DriveSystem.MotorNames.values().length];
+    private final VelocityEstimator imuEstimator = new VelocityEstimator(VELOCITY_WINDOW);
+    // IMU heading with the wraps at 180 taken out, radians clockwise
+    private double mHeading;
+    private double mLastImuHeading;
+    private double mResidual;
+    private double mTurnRateError;
+    private boolean mSlipping;
+    private int mSlipCount;
+
+    public SlipDetector() {
+        for (int i = 0; i < wheels.length; i++) {
+            wheels[i] = new VelocityEstimator(VELOCITY_WINDOW);
+        }
+    }
+
+    /**
+     * Starts over, e.g. at the start of a move; the slip count is kept
+     */
+    public void reset() {
+        for (VelocityEstimator wheel : wheels) {
+            wheel.reset();
+        }
+        imuEstimator.reset();
+        mHeading = 0;
+        mLastImuHeading = Double.NaN;
+        mResidual = 0;
+        mTurnRateError = 0;
+        mSlipping = false;
+    }
+
+    /**
+     * Adds a sample
+     * @param nanos System.nanoTime() of the readings
+     * @param ticks cumulative ticks of each wheel, indexed by MotorNames ordinal
+     * @param imuHeading heading from IMUSystem.getHeading(), degrees
+     * @return Returns true while the wheels are slipping
+     */
+    public boolean update(long nanos, int[] ticks, double imuHeading) {
+        for (int i = 0; i < wheels.length; i++) {
+            wheels[i].add(nanos, ticks[i] / DriveSystem.TICKS_IN_MM);
+        }
+        double heading = Math.toRadians(imuHeading);
+        if (!Double.isNaN(mLastImuHeading)) {
+            mHeading += Odometry.normalize(heading - mLastImuHeading);
+        }
+        mLastImuHeading = heading;
+        imuEstimator.add(nanos, mHeading);
+        if (!imuEstimator.isFull()) {
+            return false;
+        }
+
+        double fl = wheels[FRONTLEFT.ordinal()].getVelocity();
+        double fr = wheels[FRONTRIGHT.ordinal()].getVelocity();
+        double br = wheels[BACKRIGHT.ordinal()].getVelocity();
+        double bl = wheels[BACKLEFT.ordinal()].getVelocity();
+        mResidual = (fl + fr - br - bl) / 4;
+        // Clockwise, like the turn power in DriveSystem
+        double encoderTurnRate = (fl - fr - br + bl) / 4 / DriveSystem.TURN_RADIUS;
+        mTurnRateError = encoderTurnRate - imuEstimator.getVelocity();
+
+        boolean slipping = Math.abs(mResidual) > RESIDUAL_LIMIT || Math.abs(mTurnRateError) > TURN_RATE_LIMIT;
+        if (slipping && !mSlipping) {
+            mSlipCount++;
+        }
+        mSlipping = slipping;
+        return slipping;
+    }
+
+    public boolean isSlipping() {
+        return mSlipping;
+    }
+
+    /**
+     * Gets how many times slipping has started since construction
+     */
+    public int getSlipCount() {
+        return mSlipCount;
+    }
+
+    /**
+     * Gets the wheel speed combination that is zero without slip
+     * @return Returns the residual in mm/s
+     */
+    public double getResidual() {
+        return mResidual;
+    }
+
+    /**
+     * Gets how far the encoders' turn rate is from the IMU's
+     * @return Returns the difference in radians/s, clockwise
+     */
+    public double getTurnRateError() {
+        return mTurnRateError;
+    }
+}
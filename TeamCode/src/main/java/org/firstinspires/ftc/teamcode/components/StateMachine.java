@@ -0,0 +1,303 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * A hierarchical state machine over an enum. Each state can have a parent, entry, update and exit
+ * actions, and guarded transitions. Parents group the states of a sequence: entering a parent
+ * drops into its initial child, the parent stays active while any of its children is, and its
+ * transitions apply to all of them. Every state keeps timing statistics so sequences can be
+ * measured on the robot.
+ *
+ * Only the setup allocates. Running the machine allocates nothing apart from the log line written
+ * when it changes state, so update() is safe to call every loop.
+ */
+public class StateMachine<S extends Enum<S>> {
+
+    public interface Action {
+        void run();
+    }
+
+    public interface Guard {
+        boolean check();
+    }
+
+    private static final int NONE = -1;
+
+    private static class Transition {
+        final Guard guard;
+        final int target;
+        final Action action;
+
+        Transition(Guard guard, int target, Action action) {
+            this.guard = guard;
+            this.target = target;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Declares one state, returned by StateMachine.state()
+     */
+    public class State {
+        private final int index;
+
+        private State(int index) {
+            this.index = index;
+        }
+
+        public State parent(S parent) {
+            mParent[index] = parent.ordinal();
+            return this;
+        }
+
+        /**
+         * Sets the child that is entered whenever this state is entered
+         */
+        public State initial(S child) {
+            mInitial[index] = child.ordinal();
+            return this;
+        }
+
+        public State onEnter(Action action) {
+            mEnter[index] = action;
+            return this;
+        }
+
+        /**
+         * Sets an action to run on every update while this state is active, before any transition
+         * is checked
+         */
+        public State onUpdate(Action action) {
+            mUpdate[index] = action;
+            return this;
+        }
+
+        public State onExit(Action action) {
+            mExit[index] = action;
+            return this;
+        }
+
+        /**
+         * Adds a transition, checked in the order added
+         */
+        public State transition(Guard guard, S target) {
+            return transition(guard, target, null);
+        }
+
+        /**
+         * Adds a transition with an action that runs after the old states have exited and before
+         * the new ones are entered
+         */
+        public State transition(Guard guard, S target, Action action) {
+            mTransitions.get(index).add(new Transition(guard, target.ordinal(), action));
+            return this;
+        }
+    }
+
+    private final String tag;
+    private final S[] states;
+    private final int[] mParent;
+    private final int[] mInitial;
+    private final Action[] mEnter;
+    private final Action[] mUpdate;
+    private final Action[] mExit;
+    private final ArrayList<ArrayList<Transition>> mTransitions;
+    // Scratch space for the path down from a common ancestor
+    private final int[] mPath;
+
+    // Timing per state
+    private final long[] mEnteredNanos;
+    private final int[] mEntries;
+    private final long[] mTotalNanos;
+    private final long[] mMaxNanos;
+    private final long[] mLastNanos;
+
+    // Innermost active state, NONE before start
+    private int mCurrent = NONE;
+
+    public StateMachine(Class<S> type, String tag) {
+        this.tag = tag;
+        states = type.getEnumConstants();
+        int count = states.length;
+        mParent = new int[count];
+        mInitial = new int[count];
+        mEnter = new Action[count];
+        mUpdate = new Action[count];
+        mExit = new Action[count];
+        mTransitions = new ArrayList<>(count);
+        mPath = new int[count];
+        mEnteredNanos = new long[count];
+        mEntries = new int[count];
+        mTotalNanos = new long[count];
+        mMaxNanos = new long[count];
+        mLastNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            mParent[i] = NONE;
+            mInitial[i] = NONE;
+            mTransitions.add(new ArrayList<Transition>());
+        }
+    }
+
+    /**
+     * Gets a state to declare its parent, actions and transitions
+     */
+    public State state(S state) {
+        return new State(state.ordinal());
+    }
+
+    /**
+     * Moves to a state from wherever the machine is, running the exit actions of everything that
+     * is left and the entry actions of everything that is entered. Use it to start, pre-empt or
+     * chain sequences. Starting the state the machine is already in re-enters it.
+     */
+    public void start(S state) {
+        switchTo(state.ordinal(), null);
+    }
+
+    /**
+     * Runs the update actions of the active states, innermost first, then takes the first
+     * transition whose guard passes, checking the innermost state's transitions first.
+     * At most one transition is taken per update.
+     * @return Returns true if a transition was taken
+     */
+    public boolean update() {
+        if (mCurrent == NONE) {
+            return false;
+        }
+        for (int s = mCurrent; s != NONE; s = mParent[s]) {
+            if (mUpdate[s] != null) {
+                mUpdate[s].run();
+            }
+        }
+        for (int s = mCurrent; s != NONE; s = mParent[s]) {
+            ArrayList<Transition> transitions = mTransitions.get(s);
+            for (int i = 0; i < transitions.size(); i++) {
+                Transition transition = transitions.get(i);
+                if (transition.guard.check()) {
+                    switchTo(transition.target, transition.action);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the innermost active state
+     * @return Returns the state, null before the machine has been started
+     */
+    public S getState() {
+        return mCurrent == NONE ? null : states[mCurrent];
+    }
+
+    /**
+     * Checks whether a state is active, either as the innermost state or as one of its parents
+     */
+    public boolean isIn(S state) {
+        return isAncestorOrSelf(state.ordinal(), mCurrent);
+    }
+
+    /**
+     * Gets how long the innermost state has been active
+     * @return Returns the time in milliseconds
+     */
+    public double getTimeInStateMs() {
+        return mCurrent == NONE ? 0 : (System.nanoTime() - mEnteredNanos[mCurrent]) / 1e6;
+    }
+
+    public int getEntryCount(S state) {
+        return mEntries[state.ordinal()];
+    }
+
+    /**
+     * Gets the average time spent in a state per visit, counting only finished visits
+     * @return Returns the time in milliseconds
+     */
+    public double getAverageMs(S state) {
+        int i = state.ordinal();
+        int finished = isAncestorOrSelf(i, mCurrent) ? mEntries[i] - 1 : mEntries[i];
+        return finished == 0 ? 0 : mTotalNanos[i] / 1e6 / finished;
+    }
+
+    public double getMaxMs(S state) {
+        return mMaxNanos[state.ordinal()] / 1e6;
+    }
+
+    public double getLastMs(S state) {
+        return mLastNanos[state.ordinal()] / 1e6;
+    }
+
+    /**
+     * Logs the timings of every state that has been entered
+     */
+    public void logTimings() {
+        for (S state : states) {
+            if (mEntries[state.ordinal()] > 0) {
+                Log.d(tag, String.format("%s: %d entries, avg %.1f ms, max %.1f ms", state,
+                        getEntryCount(state), getAverageMs(state), getMaxMs(state)));
+            }
+        }
+    }
+
+    private void switchTo(int target, Action action) {
+        long now = System.nanoTime();
+        // The closest ancestor of the target that stays active, so the target itself is
+        // always re-entered
+        int common = mParent[target];
+        while (common != NONE && !isAncestorOrSelf(common, mCurrent)) {
+            common = mParent[common];
+        }
+        int from = mCurrent;
+        for (int s = mCurrent; s != common && s != NONE; s = mParent[s]) {
+            exit(s, now);
+        }
+        if (action != null) {
+            action.run();
+        }
+        int depth = 0;
+        for (int s = target; s != common; s = mParent[s]) {
+            mPath[depth++] = s;
+        }
+        while (depth > 0) {
+            enter(mPath[--depth], now);
+        }
+        mCurrent = target;
+        while (mInitial[mCurrent] != NONE) {
+            mCurrent = mInitial[mCurrent];
+            enter(mCurrent, now);
+        }
+        Log.d(tag, (from == NONE ? "start" : states[from].toString()) + " -> " + states[mCurrent]);
+    }
+
+    private void enter(int s, long now) {
+        mEnteredNanos[s] = now;
+        mEntries[s]++;
+        // Set before the entry action so that it sees itself as active
+        mCurrent = s;
+        if (mEnter[s] != null) {
+            mEnter[s].run();
+        }
+    }
+
+    private void exit(int s, long now) {
+        if (mExit[s] != null) {
+            mExit[s].run();
+        }
+        long duration = now - mEnteredNanos[s];
+        mTotalNanos[s] += duration;
+        mLastNanos[s] = duration;
+        mMaxNanos[s] = Math.max(mMaxNanos[s], duration);
+    }
+
+    private boolean isAncestorOrSelf(int ancestor, int state) {
+        for (int s = state; s != NONE; s = mParent[s]) {
+            if (s == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,7 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * A piece of the robot that only one Command can drive at a time, see CommandScheduler
+ */
+public interface Subsystem {
+}
@@ -5,6 +5,7 @@ import com.qualcomm.robotcore.hardware.HardwareMap;
 import java.util.List;
 import org.firstinspires.ftc.robotcore.external.ClassFactory;
 import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.VuforiaLocalizer;
 import org.firstinspires.ftc.robotcore.external.tfod.TFObjectDetector;
 import org.firstinspires.ftc.robotcore.external.tfod.Recognition;
@@ -17,9 +18,42 @@ public class Tensorflow {
     private static final String LABEL_SECOND_ELEMENT = "Skystone";
     private static final String VUFORIA_KEY = "Ad0Srbr/////AAABmdpa0/j2K0DPhXQjE2Hyum9QUQXZO8uAVCNpwlogfxiVmEaSuqHoTMWcV9nLlQpEnh5bwTlQG+T35Vir8IpdrSdk7TctIqH3QBuJFdHsx5hlcn74xa7AiQSJgUD/n7JJ2zJ/Er5Hc+b+r616Jf1YU6RO63Ajk5+TFB9N3a85NjMD6eDm+C6f14647ELnmGC03poSOeczbX7hZpIEObtYdVyKZ2NQ/26xDfSwwJuyMgUHwWY6nl6mk0GMnIGvu0/HoGNgyR5EkUQWyx9XlmxSrldY7BIEVkiKmracvD7W9hEGZ2nPied6DTY5RFNuFX07io6+I59/d7291NXKVMDnFAqSt4a2JYsECv+j7b25S0mD";;
 
+    // Labels are interned to these ids so callers compare ints instead of strings
+    public static final int LABEL_STONE = 0;
+    public static final int LABEL_SKYSTONE = 1;
+    public static final int LABEL_UNKNOWN = -1;
+
+    /**
+     * A recognition that survived post-processing. Instances are reused between frames.
+     */
+    public static class Detection {
+        public int label;
+        public float confidence;
+        public float left, top, right, bottom;
+        public double angleRadians;
+
+        private float area() {
+            return (right - left) * (bottom - top);
+        }
+    }
+
+    private static final int MAX_DETECTIONS = 16;
+    // Indexed by label id, both at the 0.3 autonomous was tuned with
+    private static final float[] MIN_CONFIDENCE = {0.3f, 0.3f};
+    // Boxes overlapping more than this (intersection over union) are treated as duplicates
+    private static final float NMS_IOU_THRESHOLD = 0.5f;
+    // Expected on-field size of a stone as a fraction of the image width, and its width / height
+    private static final float MIN_WIDTH_FRACTION = 0.05f;
+    private static final float MAX_WIDTH_FRACTION = 0.7f;
+    private static final float MIN_ASPECT = 0.5f;
+    private static final float MAX_ASPECT = 3.5f;
+
     private VuforiaLocalizer vuforia;
     private TFObjectDetector tfod;
 
+    private final Detection[] detections = new Detection[MAX_DETECTIONS];
+    private int mDetectionCount;
+
     public Tensorflow(WebcamName name, int tfodMonitorId) {
         VuforiaLocalizer.Parameters parameters = new VuforiaLocalizer.Parameters();
 
@@ -28,9 +62,25 @@ public class Tensorflow {
         parameters.cameraName = name;
 
         vuforia = ClassFactory.getInstance().createVuforia(parameters);
+        initTfod(tfodMonitorId);
+    }
 
+    /**
+     * Attaches the detector to an existing Vuforia component, so it keeps running across
+     * Vuforia.switchCamera calls instead of owning a camera of its own
+     */
+    public Tensorflow(Vuforia sharedVuforia, int tfodMonitorId) {
+        vuforia = sharedVuforia.getLocalizer();
+        initTfod(tfodMonitorId);
+    }
+
+    private void initTfod(int tfodMonitorId) {
+        for (int i = 0; i < MAX_DETECTIONS; i++) {
+            detections[i] = new Detection();
+        }
         TFObjectDetector.Parameters tfodParameters = new TFObjectDetector.Parameters(tfodMonitorId);
-        tfodParameters.minimumConfidence = 0.3;
+        // Per-label thresholds are applied in updateDetections, this only needs to pass the lowest
+        tfodParameters.minimumConfidence = Math.min(MIN_CONFIDENCE[LABEL_STONE], MIN_CONFIDENCE[LABEL_SKYSTONE]);
         tfod = ClassFactory.getInstance().createTFObjectDetector(tfodParameters, vuforia);
         tfod.loadModelFromAsset(TFOD_MODEL_ASSET, LABEL_FIRST_ELEMENT, LABEL_SECOND_ELEMENT);
         tfod.activate();
@@ -43,6 +93,105 @@ public class Tensorflow {
         return null;
     }
 
+    /**
+     * Runs the latest recognitions through label interning, per-label confidence thresholds,
+     * size gating and non-maximum suppression. Results are read with getDetectionCount and
+     * getDetection, sorted by confidence.
+     * @return Returns false if there were no new recognitions since the last call
+     */
+    public boolean updateDetections() {
+        List<Recognition> recognitions = getInference();
+        if (recognitions == null) {
+            return false;
+        }
+
+        int count = 0;
+        for (int i = 0; i < recognitions.size() && count < MAX_DETECTIONS; i++) {
+            Recognition recognition = recognitions.get(i);
+            int label = labelId(recognition.getLabel());
+            if (label == LABEL_UNKNOWN || recognition.getConfidence() < MIN_CONFIDENCE[label]) {
+                continue;
+            }
+            float widthFraction = recognition.getWidth() / recognition.getImageWidth();
+            float aspect = recognition.getWidth() / recognition.getHeight();
+            if (widthFraction < MIN_WIDTH_FRACTION || widthFraction > MAX_WIDTH_FRACTION
+                    || aspect < MIN_ASPECT || aspect > MAX_ASPECT) {
+                continue;
+            }
+
+            Detection detection = detections[count];
+            detection.label = label;
+            detection.confidence = recognition.getConfidence();
+            detection.left = recognition.getLeft();
+            detection.top = recognition.getTop();
+            detection.right = recognition.getRight();
+            detection.bottom = recognition.getBottom();
+            detection.angleRadians = recognition.estimateAngleToObject(AngleUnit.RADIANS);
+
+            // Insertion sort by descending confidence, swapping the pooled holders in place
+            for (int j = count; j > 0 && detections[j - 1].confidence < detection.confidence; j--) {
+                detections[j] = detections[j - 1];
+                detections[j - 1] = detection;
+            }
+            count++;
+        }
+        mDetectionCount = suppressOverlaps(count);
+        return true;
+    }
+
+    public int getDetectionCount() {
+        return mDetectionCount;
+    }
+
+    public Detection getDetection(int index) {
+        return detections[index];
+    }
+
+    // Greedy non-maximum suppression over the sorted detections, compacting survivors to the front
+    private int suppressOverlaps(int count) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            Detection candidate = detections[i];
+            boolean duplicate = false;
+            for (int j = 0; j < kept; j++) {
+                if (intersectionOverUnion(detections[j], candidate) > NMS_IOU_THRESHOLD) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                detections[i] = detections[kept];
+                detections[kept] = candidate;
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private static float intersectionOverUnion(Detection a, Detection b) {
+        float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+        float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        float intersection = width * height;
+        return intersection / (a.area() + b.area() - intersection);
+    }
+
+    private static int labelId(String label) {
+        if (LABEL_FIRST_ELEMENT.equals(label)) {
+            return LABEL_STONE;
+        } else if (LABEL_SECOND_ELEMENT.equals(label)) {
+            return LABEL_SKYSTONE;
+        }
+        return LABEL_UNKNOWN;
+    }
+
+    // Lets custom vision (e.g. a FramePipeline) pull frames from the same camera
+    public VuforiaLocalizer getLocalizer() {
+        return vuforia;
+    }
+
     public void activate() {
         tfod.activate();
     }
@@ -0,0 +1,380 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A smooth drive path with a timetable: quintic Hermite splines through a list of poses,
+ * resampled at even steps of arc length, with the speed at every step limited by the velocity,
+ * acceleration and centripetal acceleration limits. Being mecanum, the heading the robot faces
+ * is independent of the direction it travels and is blended between the waypoints' headings.
+ *
+ * Building one is slow, so load() keeps them as files named by a hash of the Spec and maps the
+ * file straight into memory on later runs. File format, big-endian: magic number, the Spec hash,
+ * the sample count, then per sample the time and the fields of sample() as floats.
+ *
+ * Units are millimeters, radians and seconds, in whatever frame the waypoints are given;
+ * TrajectoryFollower places a trajectory relative to the pose the robot starts it from.
+ */
+public class Trajectory {
+
+    public static final String TAG = "Trajectory";
+
+    // Indices into the array filled by sample()
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int HEADING = 2;
+    // Direction of travel
+    public static final int TANGENT = 3;
+    public static final int VELOCITY = 4;
+    public static final int ACCELERATION = 5;
+    public static final int SAMPLE_SIZE = 6;
+
+    private static final int MAGIC = 0x54524a31;    // "TRJ1"
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 4 * (1 + SAMPLE_SIZE);
+    // Arc length between samples
+    private static final double SPACING = 10;
+    // Spline evaluations per segment for the arc length table
+    private static final int LENGTH_STEPS = 200;
+
+    /**
+     * What to build: the waypoints and the limits
+     */
+    public static class Spec {
+        private final ArrayList<double[]> waypoints = new ArrayList<>();
+        private final double maxVelocity;
+        private final double maxAcceleration;
+        private final double maxCentripetal;
+
+        /**
+         * @param maxVelocity mm/s
+         * @param maxAcceleration along the path, mm/s^2
+         * @param maxCentripetal across the path in curves, mm/s^2
+         */
+        public Spec(double maxVelocity, double maxAcceleration, double maxCentripetal) {
+            this.maxVelocity = maxVelocity;
+            this.maxAcceleration = maxAcceleration;
+            this.maxCentripetal = maxCentripetal;
+        }
+
+        /**
+         * Adds a pose for the path to pass through
+         * @param tangent direction of travel through it, radians
+         * @param heading direction to face there, radians
+         * @return Returns this spec
+         */
+        public Spec waypoint(double x, double y, double tangent, double heading) {
+            waypoints.add(new double[] { x, y, tangent, heading });
+            return this;
+        }
+
+        /**
+         * Gets a hash of everything the trajectory depends on, to name its file by
+         * @return Returns a 64 bit FNV-1a hash
+         */
+        public long hash() {
+            long hash = 0xcbf29ce484222325L;
+            hash = mix(hash, MAGIC);
+            hash = mix(hash, Double.doubleToLongBits(SPACING));
+            hash = mix(hash, Double.doubleToLongBits(maxVelocity));
+            hash = mix(hash, Double.doubleToLongBits(maxAcceleration));
+            hash = mix(hash, Double.doubleToLongBits(maxCentripetal));
+            for (double[] waypoint : waypoints) {
+                for (double value : waypoint) {
+                    hash = mix(hash, Double.doubleToLongBits(value));
+                }
+            }
+            return hash;
+        }
+
+        private static long mix(long hash, long value) {
+            for (int i = 0; i < 8; i++) {
+                hash ^= (value >>> (8 * i)) & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private Trajectory(ByteBuffer buffer) {
+        this.buffer = buffer;
+        count = buffer.getInt(12);
+    }
+
+    /**
+     * Gets a trajectory from its file in a directory, building and saving it first if there
+     * isn't one yet. A file that is stale, corrupt or cut short is replaced.
+     * @throws IOException if the file can't be read or written
+     */
+    public static Trajectory load(File directory, Spec spec) throws IOException {
+        long hash = spec.hash();
+        File file = new File(directory, String.format("%016x.traj", hash));
+        if (file.exists()) {
+            ByteBuffer buffer = map(file, hash);
+            if (buffer != null) {
+                return new Trajectory(buffer);
+            }
+            Log.w(TAG, "Rebuilding bad trajectory file " + file);
+            if (!file.delete()) {
+                throw new IOException("Couldn't delete " + file);
+            }
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't make " + directory);
+        }
+        // Written under another name first so a half-written file is never mapped
+        File temp = new File(directory, file.getName() + ".tmp");
+        build(spec).save(temp);
+        if (!temp.renameTo(file)) {
+            throw new IOException("Couldn't rename " + temp);
+        }
+        ByteBuffer buffer = map(file, hash);
+        if (buffer == null) {
+            throw new IOException("Not a trajectory for this spec: " + file);
+        }
+        return new Trajectory(buffer);
+    }
+
+    // Maps a trajectory file into memory, null if it isn't a whole trajectory for the hash
+    private static ByteBuffer map(File file, long hash) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            // The mapping stays valid after the file is closed
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+                || buffer.getLong(4) != hash || buffer.getInt(12) < 0
+                || buffer.capacity() < HEADER_BYTES + (long) buffer.getInt(12) * RECORD_BYTES) {
+            return null;
+        }
+        return buffer;
+    }
+
+    /**
+     * Builds a trajectory in memory
+     * @return Returns the trajectory
+     */
+    public static Trajectory build(Spec spec) {
+        int segments = spec.waypoints.size() - 1;
+        if (segments < 1) {
+            throw new IllegalArgumentException("A trajectory needs at least two waypoints");
+        }
+
+        // Polynomial coefficients of x and y for each segment, and its arc length table
+        double[][] xCoefficients = new double[segments][];
+        double[][] yCoefficients = new double[segments][];
+        double[][] lengths = new double[segments][LENGTH_STEPS + 1];
+        double[] segmentStart = new double[segments + 1];
+        for (int i = 0; i < segments; i++) {
+            double[] from = spec.waypoints.get(i);
+            double[] to = spec.waypoints.get(i + 1);
+            // Tangent magnitudes of the chord length keep the curve from looping or flattening
+            double chord = Math.hypot(to[0] - from[0], to[1] - from[1]);
+            xCoefficients[i] = quintic(from[0], chord * Math.cos(from[2]), to[0], chord * Math.cos(to[2]));
+            yCoefficients[i] = quintic(from[1], chord * Math.sin(from[2]), to[1], chord * Math.sin(to[2]));
+            double lastX = from[0];
+            double lastY = from[1];
+            for (int j = 1; j <= LENGTH_STEPS; j++) {
+                double u = (double) j / LENGTH_STEPS;
+                double x = evaluate(xCoefficients[i], u, 0);
+                double y = evaluate(yCoefficients[i], u, 0);
+                lengths[i][j] = lengths[i][j - 1] + Math.hypot(x - lastX, y - lastY);
+                lastX = x;
+                lastY = y;
+            }
+            segmentStart[i + 1] = segmentStart[i] + lengths[i][LENGTH_STEPS];
+        }
+
+        // Resample evenly by arc length
+        double total = segmentStart[segments];
+        int count = Math.max(2, (int) Math.ceil(total / SPACING) + 1);
+        double step = total / (count - 1);
+        float[][] samples = new float[count][SAMPLE_SIZE];
+        double[] maxVelocities = new double[count];
+        int segment = 0;
+        for (int k = 0; k < count; k++) {
+            double s = k * step;
+            while (segment < segments - 1 && s > segmentStart[segment + 1]) {
+                segment++;
+            }
+            double local = s - segmentStart[segment];
+            double u = parameterAt(lengths[segment], local);
+            double[] xc = xCoefficients[segment];
+            double[] yc = yCoefficients[segment];
+            double dx = evaluate(xc, u, 1);
+            double dy = evaluate(yc, u, 1);
+            double ddx = evaluate(xc, u, 2);
+            double ddy = evaluate(yc, u, 2);
+            double speed = Math.hypot(dx, dy);
+            double curvature = speed == 0 ? 0 : (dx * ddy - dy * ddx) / (speed * speed * speed);
+
+            // Heading eases from one waypoint's to the next with no jump in turn rate at either
+            double[] from = spec.waypoints.get(segment);
+            double[] to = spec.waypoints.get(segment + 1);
+            double length = lengths[segment][LENGTH_STEPS];
+            double f = length == 0 ? 1 : Math.min(1, local / length);
+            f = f * f * (3 - 2 * f);
+            double heading = from[3] + f * Odometry.normalize(to[3] - from[3]);
+
+            float[] sample = samples[k];
+            sample[X] = (float) evaluate(xc, u, 0);
+            sample[Y] = (float) evaluate(yc, u, 0);
+            sample[HEADING] = (float) Odometry.normalize(heading);
+            sample[TANGENT] = (float) (speed == 0 ? from[2] : Math.atan2(dy, dx));
+            maxVelocities[k] = Math.abs(curvature) < 1e-9 ? spec.maxVelocity
+                    : Math.min(spec.maxVelocity, Math.sqrt(spec.maxCentripetal / Math.abs(curvature)));
+        }
+
+        // Fastest speed at each sample that can still be reached from the start and still stop
+        // by the end, then the time it takes to get there
+        double[] velocities = new double[count];
+        for (int k = 1; k < count; k++) {
+            velocities[k] = Math.min(maxVelocities[k],
+                    Math.sqrt(velocities[k - 1] * velocities[k - 1] + 2 * spec.maxAcceleration * step));
+        }
+        velocities[count - 1] = 0;
+        for (int k = count - 2; k > 0; k--) {
+            velocities[k] = Math.min(velocities[k],
+                    Math.sqrt(velocities[k + 1] * velocities[k + 1] + 2 * spec.maxAcceleration * step));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + count * RECORD_BYTES);
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, spec.hash());
+        buffer.putInt(12, count);
+        double time = 0;
+        for (int k = 0; k < count; k++) {
+            if (k > 0) {
+                double average = (velocities[k - 1] + velocities[k]) / 2;
+                time += average > 0 ? step / average : 0;
+            }
+            float[] sample = samples[k];
+            sample[VELOCITY] = (float) velocities[k];
+            // Constant acceleration over the step to the next sample
+            sample[ACCELERATION] = k == count - 1 ? 0
+                    : (float) ((velocities[k + 1] * velocities[k + 1] - velocities[k] * velocities[k]) / (2 * step));
+            int offset = HEADER_BYTES + k * RECORD_BYTES;
+            buffer.putFloat(offset, (float) time);
+            for (int j = 0; j < SAMPLE_SIZE; j++) {
+                buffer.putFloat(offset + 4 * (j + 1), sample[j]);
+            }
+        }
+        return new Trajectory(buffer);
+    }
+
+    /**
+     * Writes the trajectory out in the format load() maps
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        byte[] bytes = new byte[HEADER_BYTES + count * RECORD_BYTES];
+        ByteBuffer source = buffer.duplicate();
+        source.position(0);
+        source.get(bytes);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Gets how long the trajectory takes to drive
+     * @return Returns the duration in seconds
+     */
+    public double getDuration() {
+        return timeAt(count - 1);
+    }
+
+    /**
+     * Gets where the robot should be and how fast it should be going at a time, interpolating
+     * between samples. Times outside the trajectory give its start or end.
+     * @param seconds time since the start
+     * @param sample filled with the values at the indices X through ACCELERATION
+     */
+    public void sample(double seconds, double[] sample) {
+        // Last sample at or before the time
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (timeAt(middle) <= seconds) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int next = Math.min(low + 1, count - 1);
+        double span = timeAt(next) - timeAt(low);
+        double f = span <= 0 ? 0 : Math.max(0, Math.min(1, (seconds - timeAt(low)) / span));
+        for (int j = 0; j < SAMPLE_SIZE; j++) {
+            double a = valueAt(low, j);
+            double b = valueAt(next, j);
+            if (j == HEADING || j == TANGENT) {
+                sample[j] = Odometry.normalize(a + f * Odometry.normalize(b - a));
+            } else {
+                sample[j] = a + f * (b - a);
+            }
+        }
+    }
+
+    private double timeAt(int index) {
+        return buffer.getFloat(HEADER_BYTES + index * RECORD_BYTES);
+    }
+
+    private double valueAt(int index, int field) {
+        return buffer.getFloat(HEADER_BYTES + index * RECORD_BYTES + 4 * (field + 1));
+    }
+
+    // Coefficients, lowest power first, of the quintic with the given ends, end velocities and
+    // zero end accelerations, over u from 0 to 1
+    private static double[] quintic(double p0, double v0, double p1, double v1) {
+        return new double[] {
+                p0,
+                v0,
+                0,
+                -10 * p0 - 6 * v0 - 4 * v1 + 10 * p1,
+                15 * p0 + 8 * v0 + 7 * v1 - 15 * p1,
+                -6 * p0 - 3 * v0 - 3 * v1 + 6 * p1
+        };
+    }
+
+    // Value or derivative of a polynomial
+    private static double evaluate(double[] coefficients, double u, int derivative) {
+        double result = 0;
+        for (int power = coefficients.length - 1; power >= derivative; power--) {
+            double factor = coefficients[power];
+            for (int d = 0; d < derivative; d++) {
+                factor *= power - d;
+            }
+            result = result * u + factor;
+        }
+        return result;
+    }
+
+    // Spline parameter at an arc length into a segment, from its table
+    private static double parameterAt(double[] lengths, double length) {
+        int low = 0;
+        int high = lengths.length - 1;
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (lengths[middle] <= length) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        double span = lengths[high] - lengths[low];
+        double f = span <= 0 ? 0 : Math.max(0, Math.min(1, (length - lengths[low]) / span));
+        return (low + f) / (lengths.length - 1);
+    }
+}
@@ -0,0 +1,110 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Drives a Trajectory against the clock. The trajectory is placed relative to the pose the
+ * robot is in when it starts, so one built from the origin facing along x can be reused from
+ * anywhere. Each loop the trajectory's velocity and acceleration are fed forward through the
+ * drive's characterized Feedforward, and the distance from where it says the robot should be is
+ * corrected proportionally.
+ *
+ * Poses follow Odometry: millimeters, radians counter-clockwise positive. The outputs are in the
+ * stick convention of DriveSystem.drive. Nothing is allocated after construction.
+ */
+public class TrajectoryFollower {
+
+    // Volts to drive forward and to strafe at a velocity in mm/s, from FeedforwardCharacterization.
+    // Until the drive is characterized these match a top speed of 1500 mm/s at 12 V.
+    private static final Feedforward FORWARD = new Feedforward(0, 12.0 / 1500, 0, 0);
+    private static final Feedforward STRAFE = new Feedforward(0, 12.0 / 1500, 0, 0);
+    // Correction per millimeter off the trajectory, mm/s
+    private static final double K_POSITION = 4;
+    // Turn power per radian of heading error
+    private static final double K_HEADING = 1.2;
+    private static final double MAX_TURN = 0.6;
+    // Finished when this close to the end once the time is up, or this long after it regardless
+    private static final double POSITION_TOLERANCE = 25;
+    private static final double HEADING_TOLERANCE = Math.toRadians(2);
+    private static final double OVERTIME = 1.0;
+
+    private final double[] sample = new double[Trajectory.SAMPLE_SIZE];
+    private Trajectory mTrajectory;
+    private long mStartNanos;
+    // Pose the trajectory's origin was placed at
+    private double mOriginX;
+    private double mOriginY;
+    private double mOriginHeading;
+
+    private double mTurn;
+    private double mStrafe;
+    private double mForward;
+
+    /**
+     * Starts driving a trajectory from the current pose
+     */
+    public void start(Trajectory trajectory, double x, double y, double heading) {
+        mTrajectory = trajectory;
+        mOriginX = x;
+        mOriginY = y;
+        mOriginHeading = heading;
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Runs one cycle of the follower from the current pose. Pass the outputs to DriveSystem.drive.
+     * @param batteryVoltage the battery voltage now
+     * @return Returns true, with all outputs zero, once at the end of the trajectory
+     */
+    public boolean update(double x, double y, double heading, double batteryVoltage) {
+        double elapsed = (System.nanoTime() - mStartNanos) / 1e9;
+        mTrajectory.sample(elapsed, sample);
+
+        // Where the trajectory says to be, placed on the field
+        double cos = Math.cos(mOriginHeading);
+        double sin = Math.sin(mOriginHeading);
+        double targetX = mOriginX + sample[Trajectory.X] * cos - sample[Trajectory.Y] * sin;
+        double targetY = mOriginY + sample[Trajectory.X] * sin + sample[Trajectory.Y] * cos;
+        double tangent = mOriginHeading + sample[Trajectory.TANGENT];
+        double headingError = Odometry.normalize(mOriginHeading + sample[Trajectory.HEADING] - heading);
+        double errorX = targetX - x;
+        double errorY = targetY - y;
+
+        double duration = mTrajectory.getDuration();
+        if (elapsed >= duration + OVERTIME || (elapsed >= duration
+                && Math.hypot(errorX, errorY) < POSITION_TOLERANCE
+                && Math.abs(headingError) < HEADING_TOLERANCE)) {
+            mTurn = 0;
+            mStrafe = 0;
+            mForward = 0;
+            return true;
+        }
+
+        // Field velocity to drive at, then turned into the robot frame as power
+        double velocityX = sample[Trajectory.VELOCITY] * Math.cos(tangent) + K_POSITION * errorX;
+        double velocityY = sample[Trajectory.VELOCITY] * Math.sin(tangent) + K_POSITION * errorY;
+        double robotCos = Math.cos(heading);
+        double robotSin = Math.sin(heading);
+        double acceleration = sample[Trajectory.ACCELERATION];
+        double forward = FORWARD.calculatePower(velocityX * robotCos + velocityY * robotSin,
+                acceleration * Math.cos(tangent - heading), batteryVoltage);
+        double right = STRAFE.calculatePower(velocityX * robotSin - velocityY * robotCos,
+                acceleration * Math.sin(heading - tangent), batteryVoltage);
+
+        // A counter-clockwise error needs a left (negative) turn on the stick
+        mTurn = -Math.max(-MAX_TURN, Math.min(MAX_TURN, K_HEADING * headingError));
+        mStrafe = right;
+        mForward = -forward;
+        return false;
+    }
+
+    public double getTurn() {
+        return mTurn;
+    }
+
+    public double getStrafe() {
+        return mStrafe;
+    }
+
+    public double getForward() {
+        return mForward;
+    }
+}
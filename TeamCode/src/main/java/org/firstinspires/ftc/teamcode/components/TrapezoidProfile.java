@@ -0,0 +1,118 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * A trapezoidal motion profile between two positions, starting and ending at rest: accelerate at
+ * the limit, cruise at the velocity limit, then decelerate. Moves too short to reach the velocity
+ * limit become a triangle. Units are whatever the caller uses (e.g. ticks and seconds).
+ * The same instance can be re-planned, so nothing is allocated per move.
+ */
+public class TrapezoidProfile {
+
+    private double mStart;
+    private double mDistance;
+    private double mSign;
+    private double mMaxAcceleration;
+
+    // Phase lengths in seconds and the velocity actually reached
+    private double mAccelTime;
+    private double mCruiseTime;
+    private double mPeakVelocity;
+
+    /**
+     * Plans a move
+     * @param start starting position
+     * @param end final position
+     * @param maxVelocity velocity limit, positive
+     * @param maxAcceleration acceleration limit, positive
+     */
+    public void plan(double start, double end, double maxVelocity, double maxAcceleration) {
+        mStart = start;
+        mDistance = Math.abs(end - start);
+        mSign = Math.signum(end - start);
+        mMaxAcceleration = maxAcceleration;
+
+        // Distance covered getting up to full speed and back down again
+        double rampDistance = maxVelocity * maxVelocity / maxAcceleration;
+        if (rampDistance > mDistance) {
+            mPeakVelocity = Math.sqrt(mDistance * maxAcceleration);
+            mAccelTime = mPeakVelocity / maxAcceleration;
+            mCruiseTime = 0;
+        } else {
+            mPeakVelocity = maxVelocity;
+            mAccelTime = maxVelocity / maxAcceleration;
+            mCruiseTime = (mDistance - rampDistance) / maxVelocity;
+        }
+    }
+
+    public double getDuration() {
+        return 2 * mAccelTime + mCruiseTime;
+    }
+
+    public boolean isFinished(double t) {
+        return t >= getDuration();
+    }
+
+    public double getPosition(double t) {
+        return mStart + mSign * distanceAt(t);
+    }
+
+    public double getVelocity(double t) {
+        if (t <= 0 || t >= getDuration()) {
+            return 0;
+        } else if (t < mAccelTime) {
+            return mSign * mMaxAcceleration * t;
+        } else if (t < mAccelTime + mCruiseTime) {
+            return mSign * mPeakVelocity;
+        }
+        return mSign * mMaxAcceleration * (getDuration() - t);
+    }
+
+    public double getAcceleration(double t) {
+        if (t <= 0 || t >= getDuration()) {
+            return 0;
+        } else if (t < mAccelTime) {
+            return mSign * mMaxAcceleration;
+        } else if (t < mAccelTime + mCruiseTime) {
+            return 0;
+        }
+        return -mSign * mMaxAcceleration;
+    }
+
+    /**
+     * Finds when the profile passes a position
+     * @param position a position between the start and the end
+     * @return Returns the time in seconds, clamped to the start and end of the profile
+     */
+    public double timeAt(double position) {
+        double distance = (position - mStart) * mSign;
+        if (distance <= 0) {
+            return 0;
+        } else if (distance >= mDistance) {
+            return getDuration();
+        }
+        double accelDistance = 0.5 * mMaxAcceleration * mAccelTime * mAccelTime;
+        if (distance <= accelDistance) {
+            return Math.sqrt(2 * distance / mMaxAcceleration);
+        } else if (distance <= accelDistance + mPeakVelocity * mCruiseTime) {
+            return mAccelTime + (distance - accelDistance) / mPeakVelocity;
+        }
+        double remaining = mDistance - distance;
+        return getDuration() - Math.sqrt(2 * remaining / mMaxAcceleration);
+    }
+
+    private double distanceAt(double t) {
+        if (t <= 0) {
+            return 0;
+        } else if (t >= getDuration()) {
+            return mDistance;
+        } else if (t < mAccelTime) {
+            return 0.5 * mMaxAcceleration * t * t;
+        }
+        double accelDistance = 0.5 * mMaxAcceleration * mAccelTime * mAccelTime;
+        if (t < mAccelTime + mCruiseTime) {
+            return accelDistance + mPeakVelocity * (t - mAccelTime);
+        }
+        double remaining = getDuration() - t;
+        return mDistance - 0.5 * mMaxAcceleration * remaining * remaining;
+    }
+}
@@ -0,0 +1,76 @@
+package org.firstinspires.ftc.teamcode.components;
+
+/**
+ * Estimates velocity from position samples by fitting a line through the last few of them.
+ * Differencing consecutive encoder reads is noisy when the loop time jitters or the position
+ * only moves a few ticks per loop; a least-squares slope over a window smooths that out without
+ * the lag building up the way it does in an exponential filter.
+ * Samples are kept in a ring buffer allocated up front.
+ */
+public class VelocityEstimator {
+
+    private final long[] times;
+    private final double[] positions;
+    private int mNext;
+    private int mCount;
+
+    /**
+     * @param window number of samples the line is fit through, at least 2
+     */
+    public VelocityEstimator(int window) {
+        times = new long[window];
+        positions = new double[window];
+    }
+
+    public void reset() {
+        mNext = 0;
+        mCount = 0;
+    }
+
+    /**
+     * Adds a sample
+     * @param nanos System.nanoTime() of the reading
+     * @param position position read
+     */
+    public void add(long nanos, double position) {
+        times[mNext] = nanos;
+        positions[mNext] = position;
+        mNext = (mNext + 1) % times.length;
+        mCount = Math.min(mCount + 1, times.length);
+    }
+
+    /**
+     * Checks whether the window has filled since the last reset
+     */
+    public boolean isFull() {
+        return mCount == times.length;
+    }
+
+    /**
+     * Fits a line through the samples in the window
+     * @return Returns the slope in position units per second, 0 with fewer than 2 samples
+     */
+    public double getVelocity() {
+        if (mCount < 2) {
+            return 0;
+        }
+        // Times relative to the newest sample so the sums stay small
+        int newest = (mNext - 1 + times.length) % times.length;
+        double meanT = 0;
+        double meanP = 0;
+        for (int i = 0; i < mCount; i++) {
+            meanT += (times[i] - times[newest]) / 1e9;
+            meanP += positions[i];
+        }
+        meanT /= mCount;
+        meanP /= mCount;
+        double sumTP = 0;
+        double sumTT = 0;
+        for (int i = 0; i < mCount; i++) {
+            double t = (times[i] - times[newest]) / 1e9 - meanT;
+            sumTP += t * (positions[i] - meanP);
+            sumTT += t * t;
+        }
+        return sumTT == 0 ? 0 : sumTP / sumTT;
+    }
+}
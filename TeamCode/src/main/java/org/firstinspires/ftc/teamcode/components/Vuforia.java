@@ -1,6 +1,10 @@
 package org.firstinspires.ftc.teamcode.components;
 
+import android.util.Log;
+
 import com.qualcomm.robotcore.hardware.HardwareMap;
+import org.firstinspires.ftc.robotcore.external.ClassFactory;
+import org.firstinspires.ftc.robotcore.external.hardware.camera.SwitchableCamera;
 import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
 import org.firstinspires.ftc.robotcore.external.matrices.OpenGLMatrix;
 import org.firstinspires.ftc.robotcore.external.matrices.VectorF;
@@ -20,6 +24,10 @@ public class Vuforia {
 
     public enum CameraChoice {
         PHONE_FRONT, PHONE_BACK, WEBCAM1, WEBCAM2;
+
+        private boolean isWebcam() {
+            return this == WEBCAM1 || this == WEBCAM2;
+        }
     }
 
     private class VuforiaLocalizer extends VuforiaLocalizerImpl {
@@ -32,6 +40,10 @@ public class Vuforia {
         }
     }
 
+    public static final String TAG = "Vuforia";
+    private static final String WEBCAM1_NAME = "Webcam 1";
+    private static final String WEBCAM2_NAME = "Webcam 2";
+
     private static final String VUFORIA_KEY =
             "Ad0Srbr/////AAABmdpa0/j2K0DPhXQjE2Hyum9QUQXZO8uAVCNpwlogfxiVmEaSuqHoTMWcV9nLlQpEnh5bwTlQG+T35Vir8IpdrSdk7TctIqH3QBuJFdHsx5hlcn74xa7AiQSJgUD/n7JJ2zJ/Er5Hc+b+r616Jf1YU6RO63Ajk5+TFB9N3a85NjMD6eDm+C6f14647ELnmGC03poSOeczbX7hZpIEObtYdVyKZ2NQ/26xDfSwwJuyMgUHwWY6nl6mk0GMnIGvu0/HoGNgyR5EkUQWyx9XlmxSrldY7BIEVkiKmracvD7W9hEGZ2nPied6DTY5RFNuFX07io6+I59/d7291NXKVMDnFAqSt4a2JYsECv+j7b25S0mD";
 
@@ -46,6 +58,8 @@ public class Vuforia {
     private static final float halfField = 72 * mmPerInch;
     private static final float quadField  = 36 * mmPerInch;
     private OpenGLMatrix lastLocation = null;
+    // When lastLocation last changed, System.nanoTime()
+    private long mLastLocationNanos;
     private VuforiaLocalizer vuforia = null;
     private float phoneXRotate    = 0;
     private float phoneYRotate    = 0;
@@ -53,6 +67,14 @@ public class Vuforia {
     public VuforiaTrackables targetsSkyStone;
     private List<VuforiaTrackable> allTrackables;
 
+    // Both webcams are opened once behind a switchable camera so we can swap streams
+    // without tearing down the localizer. Null when only one webcam is configured.
+    private SwitchableCamera switchableCamera;
+    private WebcamName webcam1;
+    private WebcamName webcam2;
+    private CameraChoice mCameraChoice;
+    private long mSwitchLatencyNanos;
+
     public Vuforia(HardwareMap hardwareMap, CameraChoice choice) {
         vuforia = setCamera(hardwareMap, choice);
     }
@@ -69,6 +91,14 @@ public class Vuforia {
         return lastLocation.getTranslation();
     }
 
+    /**
+     * Gets when isAnyTargetVisible() last got a new robot location
+     * @return Returns the System.nanoTime() it arrived, 0 if there hasn't been one
+     */
+    public long getLastLocationNanos() {
+        return mLastLocationNanos;
+    }
+
     public boolean isTargetVisible(VuforiaTrackable targetTrackable) {
         for (VuforiaTrackable trackable : allTrackables) {
             if (((VuforiaTrackableDefaultListener)trackable.getListener()).isVisible()) {
@@ -90,6 +120,7 @@ public class Vuforia {
                 OpenGLMatrix robotLocationTransform = ((VuforiaTrackableDefaultListener)trackable.getListener()).getUpdatedRobotLocation();
                 if (robotLocationTransform != null) {
                     lastLocation = robotLocationTransform;
+                    mLastLocationNanos = System.nanoTime();
                 }
                 return true;
             }
@@ -105,9 +136,62 @@ public class Vuforia {
         targetsSkyStone.deactivate();
     }
 
-    public VuforiaLocalizer setCamera(HardwareMap hardwareMap, CameraChoice cameraChoice) {
-        if (vuforia != null)
-            vuforia.close();
+    /**
+     * Gets the underlying localizer so other consumers (e.g. Tensorflow) can share the camera
+     * @return Returns the Vuforia localizer, which outlives camera switches
+     */
+    public org.firstinspires.ftc.robotcore.external.navigation.VuforiaLocalizer getLocalizer() {
+        return vuforia;
+    }
+
+    /**
+     * Gets the camera currently streaming to the localizer
+     * @return Returns the active camera choice
+     */
+    public CameraChoice getActiveCamera() {
+        return mCameraChoice;
+    }
+
+    /**
+     * Gets how long the last call to switchCamera took
+     * @return Returns the switch latency in milliseconds
+     */
+    public double getSwitchLatencyMs() {
+        return mSwitchLatencyNanos / 1e6;
+    }
+
+    /**
+     * Checks whether switchCamera can change to a camera
+     * @return Returns true if it is the active camera or both webcams are open
+     */
+    public boolean canSwitchTo(CameraChoice cameraChoice) {
+        return cameraChoice == mCameraChoice || (switchableCamera != null && cameraChoice.isWebcam());
+    }
+
+    /**
+     * Switches the active camera between Webcam 1 and Webcam 2. Only the active stream changes,
+     * so the trackables and anything attached to the localizer, like Tensorflow, stay attached.
+     * Any other switch would mean rebuilding the localizer out from under them, so it is refused.
+     * @param cameraChoice the camera to switch to
+     * @return Returns false, leaving the camera as it was, if it can't be switched to
+     */
+    public boolean switchCamera(CameraChoice cameraChoice) {
+        if (cameraChoice == mCameraChoice) {
+            return true;
+        }
+        if (!canSwitchTo(cameraChoice)) {
+            Log.w(TAG, "Can't switch from " + mCameraChoice + " to " + cameraChoice + " without rebuilding");
+            return false;
+        }
+        long start = System.nanoTime();
+        switchableCamera.setActiveCamera(cameraChoice == CameraChoice.WEBCAM1 ? webcam1 : webcam2);
+        mCameraChoice = cameraChoice;
+        mSwitchLatencyNanos = System.nanoTime() - start;
+        Log.d(TAG, "Switched to " + cameraChoice + " in " + getSwitchLatencyMs() + " ms");
+        return true;
+    }
+
+    private VuforiaLocalizer setCamera(HardwareMap hardwareMap, CameraChoice cameraChoice) {
         int cameraMonitorViewId = hardwareMap.appContext.getResources().getIdentifier("cameraMonitorViewId", "id", hardwareMap.appContext.getPackageName());
 
         VuforiaLocalizer.Parameters parameters = new VuforiaLocalizer.Parameters(cameraMonitorViewId);
@@ -122,13 +206,23 @@ public class Vuforia {
                 parameters.cameraDirection = VuforiaLocalizer.CameraDirection.BACK;
                 break;
             case WEBCAM1:
-                parameters.cameraName = hardwareMap.get(WebcamName.class, "Webcam 1");
-                break;
             case WEBCAM2:
-                parameters.cameraName = hardwareMap.get(WebcamName.class, "Webcam 2");
+                webcam1 = hardwareMap.tryGet(WebcamName.class, WEBCAM1_NAME);
+                webcam2 = hardwareMap.tryGet(WebcamName.class, WEBCAM2_NAME);
+                if (webcam1 != null && webcam2 != null) {
+                    parameters.cameraName = ClassFactory.getInstance().getCameraManager().nameForSwitchableCamera(webcam1, webcam2);
+                } else {
+                    parameters.cameraName = hardwareMap.get(WebcamName.class,
+                            cameraChoice == CameraChoice.WEBCAM1 ? WEBCAM1_NAME : WEBCAM2_NAME);
+                }
                 break;
         }
         vuforia = new VuforiaLocalizer(parameters);
+        if (cameraChoice.isWebcam() && webcam1 != null && webcam2 != null) {
+            switchableCamera = (SwitchableCamera) vuforia.getCamera();
+            switchableCamera.setActiveCamera(cameraChoice == CameraChoice.WEBCAM1 ? webcam1 : webcam2);
+        }
+        mCameraChoice = cameraChoice;
         initializeTrackables(vuforia);
         return vuforia;
     }
@@ -31,6 +31,6 @@ public class ImuTestOpMode extends OpMode {
     }
 
     public void loop(){
-        Log.d(TAG,"heading:"  + imu.getHeading());
+        Log.d(TAG,"heading:"  + imu.read().heading);
     }
 }
@@ -1,29 +1,76 @@
 package org.firstinspires.ftc.teamcode.opmodes.autonomous;
 
 import android.graphics.Color;
+import android.util.Log;
 
 import com.qualcomm.hardware.bosch.BNO055IMU;
-import com.qualcomm.robotcore.hardware.ColorSensor;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DistanceSensor;
+import com.qualcomm.robotcore.hardware.NormalizedColorSensor;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
 
-import org.firstinspires.ftc.robotcore.external.hardware.camera.WebcamName;
+import org.firstinspires.ftc.robotcore.external.matrices.VectorF;
 import org.firstinspires.ftc.robotcore.external.navigation.VuforiaLocalizer;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+import org.firstinspires.ftc.teamcode.components.ColorSystem;
 import org.firstinspires.ftc.teamcode.components.DriveSystem;
+import org.firstinspires.ftc.teamcode.components.FieldMap;
+import org.firstinspires.ftc.teamcode.components.IMUSystem;
+import org.firstinspires.ftc.teamcode.components.Lidar;
+import org.firstinspires.ftc.teamcode.components.Odometry;
+import org.firstinspires.ftc.teamcode.components.ParticleFilter;
+import org.firstinspires.ftc.teamcode.components.PathFollower;
+import org.firstinspires.ftc.teamcode.components.PoseEstimator;
 import org.firstinspires.ftc.teamcode.components.Tensorflow;
+import org.firstinspires.ftc.teamcode.components.Trajectory;
+import org.firstinspires.ftc.teamcode.components.TrajectoryFollower;
 import org.firstinspires.ftc.teamcode.components.Vuforia;
 import org.firstinspires.ftc.teamcode.opmodes.base.BaseOpMode;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.EnumMap;
 
 public abstract class BaseAutonomous extends BaseOpMode {
-    DistanceSensor distanceCenter;
-    DistanceSensor distanceOutside;
+    Lidar distanceCenter;
+    Lidar distanceOutside;
     DriveSystem.Direction centerDirection;
     DriveSystem.Direction outsideDirection;
     Tensorflow tensorflow;
-    ColorSensor colorSensor;
+    ColorSystem colorSystem;
     Team currentTeam;
+    Odometry odometry;
+    ParticleFilter particleFilter;
+    // Best estimate of the pose, from the encoders, the IMU and any Vuforia fixes
+    final PoseEstimator poseEstimator = new PoseEstimator();
+    private long mLastFixNanos;
+    final PathFollower pathFollower = new PathFollower();
+    final TrajectoryFollower trajectoryFollower = new TrajectoryFollower();
+    private Lidar frontLeftLidar;
+    private Lidar frontRightLidar;
+    private VoltageSensor voltageSensor;
+    private final double[] lidarRanges = new double[2];
+
+    // Both lidars sit on the front corners of the chassis, facing forward
+    private static final ParticleFilter.SensorMount[] LIDAR_MOUNTS = {
+            new ParticleFilter.SensorMount(200, 180, 0),
+            new ParticleFilter.SensorMount(200, -180, 0)
+    };
+    private static final int PARTICLE_COUNT = 300;
+    // Nothing steers on the particle filter's pose yet, so it isn't run; turn it on along with
+    // whatever starts using it
+    private static final boolean USE_PARTICLE_FILTER = false;
+    private static final long LIDAR_PERIOD_MS = 10;
+    // Robot starts against its alliance wall facing away from the audience
+    private static final double START_X = -900;
+    private static final double START_Y = FieldMap.HALF_FIELD - 230;
+    private static final double START_SPREAD = 100;
+    private static final double START_HEADING_SPREAD = Math.toRadians(2);
+    // How long before a Vuforia location arrives its frame was taken
+    private static final long VISION_LATENCY_NANOS = 100_000_000L;
+    private static final String TAG = "BaseAutonomous";
+    // Built trajectories are kept here so later inits only have to map them
+    private static final File TRAJECTORY_DIR = new File(AppUtil.ROBOT_DATA_DIR, "trajectories");
 
     public enum Team {
         RED, BLUE
@@ -31,29 +78,148 @@ public abstract class BaseAutonomous extends BaseOpMode {
 
     public void init(BaseStateMachine.Team team) {
         super.init();
-        
+        long initStart = System.nanoTime();
+
         EnumMap<DriveSystem.MotorNames, DcMotor> driveMap = new EnumMap<>(DriveSystem.MotorNames.class);
         for(DriveSystem.MotorNames name : DriveSystem.MotorNames.values()){
             driveMap.put(name,hardwareMap.get(DcMotor.class, name.toString()));
         }
         driveSystem = new DriveSystem(driveMap, hardwareMap.get(BNO055IMU.class, "imu"));
+        voltageSensor = hardwareMap.voltageSensor.iterator().next();
 
+        frontLeftLidar = new Lidar(hardwareMap.get(DistanceSensor.class, "FRONTLEFTLIDAR"));
+        frontRightLidar = new Lidar(hardwareMap.get(DistanceSensor.class, "FRONTRIGHTLIDAR"));
+        frontLeftLidar.startSampling(LIDAR_PERIOD_MS);
+        frontRightLidar.startSampling(LIDAR_PERIOD_MS);
         if (team == BaseStateMachine.Team.RED) {
-            distanceCenter = hardwareMap.get(DistanceSensor.class, "FRONTLEFTLIDAR");
-            distanceOutside = hardwareMap.get(DistanceSensor.class, "FRONTRIGHTLIDAR");
+            distanceCenter = frontLeftLidar;
+            distanceOutside = frontRightLidar;
             centerDirection = DriveSystem.Direction.LEFT;
             outsideDirection = DriveSystem.Direction.RIGHT;
         } else {
-            distanceCenter = hardwareMap.get(DistanceSensor.class, "FRONTRIGHTLIDAR");
-            distanceOutside = hardwareMap.get(DistanceSensor.class, "FRONTLEFTLIDAR");
+            distanceCenter = frontRightLidar;
+            distanceOutside = frontLeftLidar;
             centerDirection = DriveSystem.Direction.RIGHT;
             outsideDirection = DriveSystem.Direction.LEFT;
         }
         int tfodMonitorViewId = hardwareMap.appContext.getResources().getIdentifier(
                 "tfodMonitorViewId", "id", hardwareMap.appContext.getPackageName());
-        WebcamName camName = hardwareMap.get(WebcamName.class, "Webcam 1");
-        tensorflow = new Tensorflow(camName, tfodMonitorViewId);
-        colorSensor = hardwareMap.get(ColorSensor.class, "COLORSENSOR");
+        // One localizer on the webcams, shared by the Vuforia fixes and TFOD
+        setCamera(Vuforia.CameraChoice.WEBCAM1);
+        tensorflow = new Tensorflow(vuforia, tfodMonitorViewId);
+        colorSystem = new ColorSystem(hardwareMap.get(NormalizedColorSensor.class, "COLORSENSOR"),
+                team == BaseStateMachine.Team.RED ? ColorSystem.Tape.RED : ColorSystem.Tape.BLUE);
         currentTeam = team;
+
+        double startY = team == BaseStateMachine.Team.RED ? -START_Y : START_Y;
+        odometry = new Odometry(driveSystem);
+        odometry.setPose(START_X, startY, 0);
+        if (USE_PARTICLE_FILTER) {
+            particleFilter = new ParticleFilter(new FieldMap(), LIDAR_MOUNTS, PARTICLE_COUNT);
+            particleFilter.initialize(START_X, startY, 0, START_SPREAD);
+        }
+        poseEstimator.setPose(START_X, startY, 0, START_SPREAD, START_HEADING_SPREAD);
+        Log.d(TAG, String.format("Init took %.0f ms, %.0f ms of it the IMU",
+                (System.nanoTime() - initStart) / 1e6, driveSystem.imuSystem.getInitMs()));
+    }
+
+    @Override
+    public void init_loop() {
+        IMUSystem imu = driveSystem.imuSystem;
+        if (imu.isCalibrated()) {
+            telemetry.addData("IMU", "Calibrated after %.0f ms", imu.getCalibratedMs());
+        } else {
+            telemetry.addData("IMU", "Calibrating: %s%s", imu.getCalibrationStatus(),
+                    imu.hasStoredCalibration() ? "" : ", no stored calibration");
+        }
+    }
+
+    /**
+     * Reads the IMU, advances the odometry and the pose estimate, corrects the particle filter (if it is in
+     * use) with the front lidars, and the pose estimate with Vuforia if it has a new location.
+     * Should be called once per loop.
+     */
+    protected void updateLocalization() {
+        // The loop's one IMU read, which everything after it uses
+        driveSystem.imuSystem.read();
+        odometry.update();
+        poseEstimator.update(System.nanoTime(), odometry.getDeltaForward(), odometry.getDeltaStrafe(),
+                odometry.getDeltaTurn(), odometry.getHeading());
+        if (vuforia.isAnyTargetVisible() && vuforia.getLastLocationNanos() != mLastFixNanos) {
+            mLastFixNanos = vuforia.getLastLocationNanos();
+            VectorF position = vuforia.getRobotPosition();
+            poseEstimator.addFix(mLastFixNanos - VISION_LATENCY_NANOS, position.get(0), position.get(1),
+                    Math.toRadians(vuforia.getRobotHeading().thirdAngle));
+        }
+        if (particleFilter != null) {
+            particleFilter.predict(odometry.getDeltaForward(), odometry.getDeltaStrafe(), odometry.getHeading());
+            lidarRanges[0] = frontLeftLidar.getMedian();
+            lidarRanges[1] = frontRightLidar.getMedian();
+            particleFilter.updateRanges(lidarRanges);
+        }
+    }
+
+    /**
+     * Points the camera the way the robot is about to drive: Webcam 1 forward and Webcam 2
+     * backward, so Vuforia keeps finding targets ahead of it. Strafes keep the camera as it is,
+     * and so does a robot with only one webcam.
+     */
+    protected void useCameraFacing(DriveSystem.Direction direction) {
+        if (direction == DriveSystem.Direction.FORWARD) {
+            switchCamera(Vuforia.CameraChoice.WEBCAM1);
+        } else if (direction == DriveSystem.Direction.BACKWARD) {
+            switchCamera(Vuforia.CameraChoice.WEBCAM2);
+        }
+    }
+
+    /**
+     * Drives one cycle along the path started on pathFollower, from the pose estimate.
+     * Should be called once per loop after updateLocalization().
+     * @return Returns true, with the motors stopped, once at the end of the path
+     */
+    protected boolean followPath() {
+        if (pathFollower.update(poseEstimator.getX(), poseEstimator.getY(), poseEstimator.getHeading())) {
+            driveSystem.stopAndReset();
+            return true;
+        }
+        driveSystem.drive(pathFollower.getTurn(), pathFollower.getStrafe(), pathFollower.getForward());
+        return false;
+    }
+
+    /**
+     * Gets a trajectory from the cache, building it if this spec hasn't been built before.
+     * Should be called during init.
+     * @return Returns the trajectory
+     */
+    protected Trajectory loadTrajectory(Trajectory.Spec spec) {
+        try {
+            return Trajectory.load(TRAJECTORY_DIR, spec);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't cache trajectory, building it in memory", e);
+            return Trajectory.build(spec);
+        }
+    }
+
+    /**
+     * Drives one cycle along the trajectory started on trajectoryFollower, from the pose
+     * estimate. Should be called once per loop after updateLocalization().
+     * @return Returns true, with the motors stopped, once at the end of the trajectory
+     */
+    protected boolean followTrajectory() {
+        if (trajectoryFollower.update(poseEstimator.getX(), poseEstimator.getY(), poseEstimator.getHeading(),
+                voltageSensor.getVoltage())) {
+            driveSystem.stopAndReset();
+            return true;
+        }
+        driveSystem.drive(trajectoryFollower.getTurn(), trajectoryFollower.getStrafe(),
+                trajectoryFollower.getForward());
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        frontLeftLidar.stopSampling();
+        frontRightLidar.stopSampling();
+        super.stop();
     }
 }
\ No newline at end of file
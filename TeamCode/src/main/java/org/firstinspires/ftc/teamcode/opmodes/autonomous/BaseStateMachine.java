@@ -2,21 +2,17 @@ package org.firstinspires.ftc.teamcode.opmodes.autonomous;
 
 import android.util.Log;
 import com.qualcomm.robotcore.util.ElapsedTime;
-import org.firstinspires.ftc.robotcore.external.navigation.AngleUnit;
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
-import org.firstinspires.ftc.robotcore.external.tfod.Recognition;
 import org.firstinspires.ftc.teamcode.components.DriveSystem;
-import java.util.ArrayList;
-import java.util.List;
+import org.firstinspires.ftc.teamcode.components.Tensorflow;
+import org.firstinspires.ftc.teamcode.components.Trajectory;
 
 public abstract class BaseStateMachine extends BaseAutonomous {
     public enum State {
         STATE_INITIAL,
         STATE_FIND_SKYSTONE,
-        STATE_ALIGN_FOR_WALL,
         STATE_ALIGN_SKYSTONE,
         STATE_ROTATE_ARM,
-        STATE_HORIZONTAL_ALIGN_SKYSTONE,
         STATE_INTAKE_SKYSTONE,
         STATE_ALIGN_STONE,
         STATE_HORIZONTAL_ALIGN_STONE,
@@ -26,7 +22,7 @@ public abstract class BaseStateMachine extends BaseAutonomous {
         STATE_TURN_FOR_FOUNDATION,
         STATE_BACKUP_INTO_FOUNDATION,
         STATE_INITIAL_ALIGN_STONE,
-        STATE_STRAFE_AWAY_FROM_FOUNDATION,
+        STATE_PARK,
         STATE_MOVE_INTO_WALL,
         STATE_RAISE_ARM_FOR_HOME,
         STATE_ALIGN_FOR_BRIDGE,
@@ -39,13 +35,11 @@ public abstract class BaseStateMachine extends BaseAutonomous {
         STATE_RAISE_ARM,
         STATE_BACKUP_FOR_SECOND_STONE,
         STATE_MOVE_PAST_COLOR_LINE,
-        LOGGING,
-        STATE_REALIGN_HEADING,
-        MOVE_BACKWARDS_AFTER_FOUNDATION,
-        STRAFE_ONTO_LINE
+        LOGGING
     }
 
     private final static String TAG = "BaseStateMachine";
+    private Trajectory parkTrajectory;
     private State mCurrentState;                         // Current State Machine State.
     private ElapsedTime mStateTime = new ElapsedTime();  // Time into current state
 
@@ -53,24 +47,46 @@ public abstract class BaseStateMachine extends BaseAutonomous {
         super.init(team);
         this.msStuckDetectInit = 15000;
         this.msStuckDetectInitLoop = 15000;
+        // Relative to the robot once the foundation is placed: straight out until clear of the
+        // foundation, easing back to the line's distance, then out onto the line, always facing
+        // the same way
+        double outside = outsideDirection == DriveSystem.Direction.RIGHT ? -1 : 1;
+        parkTrajectory = loadTrajectory(new Trajectory.Spec(1000, 1500, 1000)
+                .waypoint(0, 0, outside * Math.PI / 2, 0)
+                .waypoint(0, outside * 770, outside * Math.PI / 2, 0)
+                .waypoint(-395, outside * 1000, outside * Math.PI / 2, 0)
+                .waypoint(-395, outside * 1270, outside * Math.PI / 2, 0));
         newState(State.STATE_INITIAL);
     }
 
     private int skystoneOffset;
     private static final int DEAD_RECKON_SKYSTONE = 20;
+    // Short enough that the corner isn't cut far out into the stones
+    private static final double SKYSTONE_LOOKAHEAD = 150;
+    // Recognitions from before the camera switched back are ignored for this long
+    private static final double CAMERA_SETTLE_MS = 200;
     private double alignStone;
     @Override
     public void loop() {
+        updateLocalization();
         telemetry.addData("State", mCurrentState);
+        if (particleFilter != null) {
+            telemetry.addData("Pose", "%.0f, %.0f, %.1f", particleFilter.getX(), particleFilter.getY(),
+                    Math.toDegrees(particleFilter.getHeading()));
+        }
+        telemetry.addData("Estimate", "%.0f, %.0f, %.1f +- %.0f mm", poseEstimator.getX(), poseEstimator.getY(),
+                Math.toDegrees(poseEstimator.getHeading()), poseEstimator.getPositionSigma());
+        telemetry.addData("Slips", driveSystem.getSlipCount());
         telemetry.update();
         switch (mCurrentState) {
             case LOGGING:
                 // telemetry.addData("DistanceFront", distanceCenter.getDistance(DistanceUnit.MM));
-                telemetry.addData("Color Blue", colorSensor.blue());
-                telemetry.addData("Color Red", colorSensor.red());
-                telemetry.addData("Color Green", colorSensor.green());
-                telemetry.addData("Color Alpha", colorSensor.alpha());
-                telemetry.addData("Color Hue", colorSensor.argb());
+                colorSystem.update();
+                telemetry.addData("Color Blue", colorSystem.getBlue());
+                telemetry.addData("Color Red", colorSystem.getRed());
+                telemetry.addData("Color Green", colorSystem.getGreen());
+                telemetry.addData("Color Alpha", colorSystem.getAlpha());
+                telemetry.addData("On Tape", colorSystem.isOnTape());
                 telemetry.update();
                 break;
             case STATE_INITIAL:
@@ -80,12 +96,13 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                 break;
 
             case STATE_FIND_SKYSTONE:
-                List<Recognition> recognitions = tensorflow.getInference();
-                List<Integer> distances = new ArrayList<>();
-                if (recognitions != null) {
-                    for (Recognition recognition : recognitions) {
-                        if (recognition.getLabel().equalsIgnoreCase("Skystone")) {
-                            double radians = recognition.estimateAngleToObject(AngleUnit.RADIANS);
+                if (tensorflow.updateDetections()) {
+                    // Set max to minimum value
+                    int maxDistance = Integer.MIN_VALUE;
+                    for (int i = 0; i < tensorflow.getDetectionCount(); i++) {
+                        Tensorflow.Detection detection = tensorflow.getDetection(i);
+                        if (detection.label == Tensorflow.LABEL_SKYSTONE) {
+                            double radians = detection.angleRadians;
                             radians = currentTeam == Team.BLUE ? -radians : radians;
                             Log.d(TAG, "Radians: " + radians);
                             int currOffset = (int) ((currentTeam == Team.RED ? 340 : 340) * (Math.tan(radians)));
@@ -93,14 +110,9 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                             Log.d(TAG, "Offset: " + currOffset);
                             // The skystone detected is one of the first three which means that
                             // the second skystone must be farthest from the audience
-                            distances.add(currOffset);
+                            maxDistance = Math.max(maxDistance, currOffset);
                         }
                     }
-                    // Set max to minimum value
-                    int maxDistance = Integer.MIN_VALUE;
-                    for (int value : distances) {
-                        maxDistance = Math.max(maxDistance, value);
-                    }
                     // Set the skystoneOffset to be the maximum value
                     skystoneOffset = maxDistance;
                 } else {
@@ -111,24 +123,16 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                 if (skystoneOffset > -80 || skystoneOffset < -280) {
                     skystoneOffset = DEAD_RECKON_SKYSTONE;
                 }
+                startSkystonePath();
+                armSystem.setSliderHeight(0.4);
                 newState(State.STATE_ALIGN_SKYSTONE);
                 Log.d(TAG, "Skystone offset: " + skystoneOffset);
-                Log.d(TAG, "Distances: " + distances.toString());
                 break;
 
             case STATE_ALIGN_SKYSTONE:
-                // Align to prepare intake
-                armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(skystoneOffset, DriveSystem.Direction.FORWARD, 0.75)) {
-                    armSystem.setSliderHeight(0.4);
-                    Log.d(TAG, "Curr Pos" + armSystem.getSliderPos());
-                    newState(State.STATE_HORIZONTAL_ALIGN_SKYSTONE);
-                }
-                break;
-
-            case STATE_HORIZONTAL_ALIGN_SKYSTONE:
+                // Line up with the skystone and across to it in one move, to prepare intake
                 armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(975, centerDirection, 0.7)) {
+                if (followPath()) {
                     newState(State.STATE_INTAKE_SKYSTONE);
                 }
                 break;
@@ -146,14 +150,6 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                 intakeSystem.suck();
                 if (driveSystem.driveToPosition(340, outsideDirection, 1.0)) {
                     armSystem.setSliderHeight(0.0);
-                    newState(State.STATE_REALIGN_HEADING);
-                }
-                break;
-
-            case STATE_REALIGN_HEADING:
-                armSystem.runSliderToTarget();
-                intakeSystem.suck();
-                if (driveSystem.turnAbsolute(currentTeam == Team.RED ? 6 : 4, 1.0)) {
                     intakeSystem.stop();
                     armSystem.closeGripper();
                     newState(State.STATE_MOVE_PAST_LINE);
@@ -162,7 +158,9 @@ public abstract class BaseStateMachine extends BaseAutonomous {
 
             case STATE_MOVE_PAST_LINE:
                 armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(1610 - skystoneOffset, DriveSystem.Direction.FORWARD, 1.0)) {
+                // Straightens up on the way rather than stopping to turn first
+                if (driveSystem.driveToPosition(1610 - skystoneOffset, DriveSystem.Direction.FORWARD, 1.0,
+                        currentTeam == Team.RED ? 6 : 4)) {
                     newState(State.STATE_TURN_FOR_FOUNDATION);
                 }
                 break;
@@ -193,22 +191,18 @@ public abstract class BaseStateMachine extends BaseAutonomous {
 
             case STATE_ROTATE_ARM:
                 armSystem.runSliderToTarget();
-                if (mStateTime.milliseconds() > 400) {
+                if (armSystem.isArmArrived()) {
                     armSystem.setSliderHeight(0.0);
-                    newState(State.STATE_ALIGN_FOR_WALL);
-                }
-                break;
-
-            case STATE_ALIGN_FOR_WALL:
-                sign = currentTeam == Team.RED ? 1 : -1;
-                if (driveSystem.turnAbsolute(85 * sign, 1.0)) {
                     newState(State.STATE_MOVE_INTO_WALL);
                 }
                 break;
 
             case STATE_MOVE_INTO_WALL:
                 armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(currentTeam == Team.RED ? 730 : 720, DriveSystem.Direction.FORWARD, 0.75)) {
+                // Pulling the foundation turns the robot, so this holds the heading it backed in at
+                sign = currentTeam == Team.RED ? 1 : -1;
+                if (driveSystem.driveToPosition(currentTeam == Team.RED ? 730 : 720, DriveSystem.Direction.FORWARD, 0.75,
+                        85 * sign)) {
                     armSystem.openGripper();
                     latchSystem.bothUp();
                     armSystem.moveToHome();
@@ -218,27 +212,21 @@ public abstract class BaseStateMachine extends BaseAutonomous {
 
             case STATE_RAISE_ARM_FOR_HOME:
                 if (armSystem.moveToHome()) {
-                    newState(State.STATE_STRAFE_AWAY_FROM_FOUNDATION);
-                }
-                break;
-
-            case STATE_STRAFE_AWAY_FROM_FOUNDATION:
-                armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(770, outsideDirection, 1.0)) {
-                    newState(State.MOVE_BACKWARDS_AFTER_FOUNDATION);
-                }
-                break;
-
-            case MOVE_BACKWARDS_AFTER_FOUNDATION:
-                armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(395, DriveSystem.Direction.BACKWARD, 1.0)) {
-                    newState(State.STRAFE_ONTO_LINE);
+                    trajectoryFollower.start(parkTrajectory, poseEstimator.getX(), poseEstimator.getY(),
+                            poseEstimator.getHeading());
+                    newState(State.STATE_PARK);
+                } else if (armSystem.isSliderStalled()) {
+                    // The arm is stuck wherever it jammed; parking under the bridge like that
+                    // could catch it, so stay put
+                    Log.w(TAG, "Slider stalled on the way home, not parking");
+                    newState(State.STATE_COMPLETE);
                 }
                 break;
 
-            case STRAFE_ONTO_LINE:
+            case STATE_PARK:
+                // Curve away from the foundation and onto the line without stopping
                 armSystem.runSliderToTarget();
-                if (driveSystem.driveToPosition(500, outsideDirection, 1.0)) {
+                if (followTrajectory()) {
                     newState(State.STATE_COMPLETE);
                 }
                 break;
@@ -261,6 +249,7 @@ public abstract class BaseStateMachine extends BaseAutonomous {
 
             case STATE_TURN_FOR_BACKUP:
                 if (driveSystem.turnAbsolute(0, 1.0)) {
+                    useCameraFacing(DriveSystem.Direction.BACKWARD);
                     newState(State.STATE_BACKUP_FOR_SECOND_STONE);
                     // Make it move more when it backs up
                     if (skystoneOffset == DEAD_RECKON_SKYSTONE) {
@@ -271,22 +260,20 @@ public abstract class BaseStateMachine extends BaseAutonomous {
 
             case STATE_BACKUP_FOR_SECOND_STONE:
                 if (driveSystem.driveToPosition(900 + Math.abs(skystoneOffset), DriveSystem.Direction.BACKWARD, 1.0)) {
+                    // The stones are in front, where Tensorflow needs to look
+                    useCameraFacing(DriveSystem.Direction.FORWARD);
                     newState(State.STATE_FIND_STONE);
                 }
                 break;
 
             case STATE_FIND_STONE:
-                recognitions = tensorflow.getInference();
-                if (recognitions != null) {
-                    for (Recognition recognition : recognitions) {
-                        if (recognition.getLabel().equals("Stone") || recognition.getLabel().equals("Skystone")) {
-                            double degrees = recognition.estimateAngleToObject(AngleUnit.DEGREES);
-                            sign = (int) Math.signum(degrees);
-                            alignStone = sign * (int) (300 * (Math.sin(Math.abs(degrees * Math.PI / 180))));
-                            newState(State.STATE_INITIAL_ALIGN_STONE);
-                            break;
-                        }
-                    }
+                // Every detection is a stone or skystone, and the most confident one comes first
+                if (mStateTime.milliseconds() > CAMERA_SETTLE_MS && tensorflow.updateDetections()
+                        && tensorflow.getDetectionCount() > 0) {
+                    double radians = tensorflow.getDetection(0).angleRadians;
+                    sign = (int) Math.signum(radians);
+                    alignStone = sign * (int) (300 * (Math.sin(Math.abs(radians))));
+                    newState(State.STATE_INITIAL_ALIGN_STONE);
                 }
                 break;
 
@@ -297,9 +284,15 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                 break;
 
             case STATE_APPROACH_STONE:
-                if (distanceCenter.getDistance(DistanceUnit.MM) < 350) {
+                // Median of the background samples, so a single spurious reading can't stop us
+                double stoneDistance = distanceCenter.getMedian();
+                if (Double.isNaN(stoneDistance)) {
+                    // No fresh readings: hold still rather than drive blind at the stone
+                    driveSystem.setMotorPower(0);
+                    Log.w(TAG, "No fresh lidar readings, holding");
+                } else if (stoneDistance < 350) {
                     driveSystem.stopAndReset();
-                    alignStone = distanceCenter.getDistance(DistanceUnit.MM);
+                    alignStone = stoneDistance;
                     newState(State.STATE_ALIGN_STONE);
                 } else {
                     driveSystem.driveToPosition(750, centerDirection, 0.7);
@@ -330,20 +323,13 @@ public abstract class BaseStateMachine extends BaseAutonomous {
                 break;
 
             case STATE_MOVE_PAST_COLOR_LINE:
-                if (currentTeam == Team.RED) {
-                    if (colorSensor.red() > colorSensor.blue() * 1.25) {
-                        driveSystem.drive(0, 0, 0.0f);
-                        newState(State.STATE_DEPOSIT_STONE);
-                        break;
-                    }
-                } else {
-                    if (colorSensor.blue() > colorSensor.red() * 1.25) {
-                        driveSystem.drive(0, 0, 0.0f);
-                        newState(State.STATE_DEPOSIT_STONE);
-                        break;
-                    }
+                if (colorSystem.update()) {
+                    driveSystem.drive(0, 0, 0.0f);
+                    Log.d(TAG, "Line detected " + mStateTime.milliseconds() + " ms into state");
+                    newState(State.STATE_DEPOSIT_STONE);
+                    break;
                 }
-                Log.d(TAG, "Blue: " + colorSensor.blue() + " Red: " + colorSensor.red());
+                Log.d(TAG, "Blue: " + colorSystem.getBlue() + " Red: " + colorSystem.getRed());
                 driveSystem.drive(0, 0, -0.75f);
                 break;
 
@@ -369,6 +355,26 @@ public abstract class BaseStateMachine extends BaseAutonomous {
         }
     }
 
+    // Forward by the skystone offset, then across toward the center to the stones, holding the
+    // heading the robot starts with
+    private void startSkystonePath() {
+        double x = poseEstimator.getX();
+        double y = poseEstimator.getY();
+        double heading = poseEstimator.getHeading();
+        double cos = Math.cos(heading);
+        double sin = Math.sin(heading);
+        double center = centerDirection == DriveSystem.Direction.LEFT ? 1 : -1;
+        // Robot relative offsets of each corner: forward, and to the left
+        double[] forwards = { 0, skystoneOffset, skystoneOffset };
+        double[] lefts = { 0, 0, 975 * center };
+        pathFollower.clear();
+        for (int i = 0; i < forwards.length; i++) {
+            pathFollower.addWaypoint(x + forwards[i] * cos - lefts[i] * sin,
+                    y + forwards[i] * sin + lefts[i] * cos, heading);
+        }
+        pathFollower.start(SKYSTONE_LOOKAHEAD, 0.7);
+    }
+
     private void newState(State newState) {
         // Restarts the state clock as well as the state
         mStateTime.reset();
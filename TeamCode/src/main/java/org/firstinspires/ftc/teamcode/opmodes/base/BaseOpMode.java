@@ -79,6 +79,11 @@ public abstract class BaseOpMode extends OpMode {
 
     }
 
+    // Only swaps between the two webcams, so skystone and Tensorflow stay attached; see Vuforia.switchCamera
+    protected boolean switchCamera(CameraChoice cameraChoice) {
+        return vuforia.switchCamera(cameraChoice);
+    }
+
     public final boolean isStopRequested() {
         return this.stopRequested || Thread.currentThread().isInterrupted();
     }
@@ -86,6 +91,7 @@ public abstract class BaseOpMode extends OpMode {
     @Override
     public void stop() {
         stopRequested = true;
+        armSystem.logSequenceTimings();
         super.stop();
     }
 }
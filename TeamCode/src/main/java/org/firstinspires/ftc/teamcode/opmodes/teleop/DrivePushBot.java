@@ -5,6 +5,7 @@ import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 
+import org.firstinspires.ftc.teamcode.components.DriveInput;
 import org.firstinspires.ftc.teamcode.components.DriveSystem;
 
 import java.util.EnumMap;
@@ -13,6 +14,7 @@ import java.util.EnumMap;
 public class DrivePushBot extends OpMode{
 
     private DriveSystem driveSystem;
+    private final DriveInput driveInput = new DriveInput();
     public void init() {
         EnumMap<DriveSystem.MotorNames, DcMotor> driveMap = new EnumMap<>(DriveSystem.MotorNames.class);
         for(DriveSystem.MotorNames name : DriveSystem.MotorNames.values()){
@@ -22,10 +24,8 @@ public class DrivePushBot extends OpMode{
     }
 
     public void loop() {
-        float rx = (float) Math.pow(gamepad1.right_stick_x, 3);
-        float lx = (float) Math.pow(gamepad1.left_stick_x, 3);
-        float ly = (float) Math.pow(gamepad1.left_stick_y, 3);
+        driveInput.update(gamepad1.right_stick_x, gamepad1.left_stick_x, gamepad1.left_stick_y, 0);
         driveSystem.slowDrive(gamepad1.left_trigger > 0.3f);
-        driveSystem.drive(rx, lx, ly);
+        driveSystem.drive(driveInput.getTurn(), driveInput.getStrafe(), driveInput.getForward());
     }
 }
@@ -2,122 +2,155 @@ package org.firstinspires.ftc.teamcode.opmodes.teleop;
 
 import android.util.Log;
 
+import com.qualcomm.hardware.bosch.BNO055IMU;
 import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.DcMotor;
 
 import org.firstinspires.ftc.teamcode.components.ArmSystem;
+import org.firstinspires.ftc.teamcode.components.Command;
+import org.firstinspires.ftc.teamcode.components.CommandScheduler;
+import org.firstinspires.ftc.teamcode.components.DriveInput;
+import org.firstinspires.ftc.teamcode.components.DriveSystem;
+import org.firstinspires.ftc.teamcode.components.GamepadRecording;
 import org.firstinspires.ftc.teamcode.components.LatchSystem;
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 import org.firstinspires.ftc.teamcode.opmodes.base.BaseOpMode;
 
-import static org.firstinspires.ftc.teamcode.components.ArmSystem.TAG;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
 
 @TeleOp(name = "Real Teleop", group="TeleOp")
 public class DriveTeleop extends BaseOpMode {
 
-    private boolean leftLatchHit = false;
-    private boolean rightLatchHit = false;
+    public static final String TAG = "DriveTeleop";
+    // Every run's gamepad input is saved here so it can be played back by ReplayTeleop
+    static final File RECORDING_FILE = new File(AppUtil.ROBOT_DATA_DIR, "teleop.rec");
 
-    private final double SLIDER_SPEED = 1;
-    private boolean gripped, down, up;
-    // private boolean mPlacing;
-    private boolean mCapstoning, mHoming, mQueuing;
-    
-    public void loop(){
-        float rx = (float) Math.pow(gamepad1.right_stick_x, 3);
-        float lx = (float) Math.pow(gamepad1.left_stick_x, 3);
-        float ly = (float) Math.pow(gamepad1.left_stick_y, 3);
-        driveSystem.slowDrive(gamepad1.left_trigger > 0.3f);
-        driveSystem.drive(rx, lx, ly);
+    private CommandScheduler scheduler;
+    private final DriveInput driveInput = new DriveInput();
+    private GamepadRecording recording;
 
+    // Runs one of the ArmSystem sequences; interrupting it stops the sequence where it is
+    private class ArmSequence extends Command {
+        private final Action start;
 
-        if (gamepad1.left_bumper) {
-            intakeSystem.unsuck(0.5);
-        } else if (gamepad1.right_bumper) {
-            intakeSystem.suck(0.5);
-        } else {
-            intakeSystem.stop();
+        ArmSequence(Action start) {
+            super(armSystem);
+            this.start = start;
         }
 
-        if (gamepad1.b && !leftLatchHit) {
-            leftLatchHit = true;
-            latchSystem.toggle(LatchSystem.Latch.LEFT);
-        } else if (!gamepad1.b) {
-            leftLatchHit = false;
+        @Override
+        public void initialize() {
+            start.run();
         }
 
-        if (gamepad1.x && !rightLatchHit) {
-            rightLatchHit = true;
-            latchSystem.toggle(LatchSystem.Latch.RIGHT);
-        } else if (!gamepad1.x) {
-            rightLatchHit = false;
+        @Override
+        public void execute() {
+            armSystem.updateSequence();
         }
 
-        if (gamepad1.y) {
-            latchSystem.bothUp();
+        @Override
+        public boolean isFinished() {
+            return armSystem.getSequenceState() == ArmSystem.ArmState.STATE_IDLE;
         }
 
-        if (gamepad1.a) {
-            latchSystem.bothDown();
+        @Override
+        public void end(boolean interrupted) {
+            if (interrupted) {
+                armSystem.cancelSequence();
+            }
         }
+    }
 
-
-        /*
-        if (gamepad2.b) {
-            mPlacing = !armSystem.place();
-        } else if (mPlacing) {
-            mPlacing = !armSystem.place();
+    @Override
+    public void init() {
+        super.init();
+        // The IMU is needed for field-centric driving
+        EnumMap<DriveSystem.MotorNames, DcMotor> driveMap = new EnumMap<>(DriveSystem.MotorNames.class);
+        for(DriveSystem.MotorNames name : DriveSystem.MotorNames.values()){
+            driveMap.put(name,hardwareMap.get(DcMotor.class, name.toString()));
         }
+        driveSystem = new DriveSystem(driveMap, hardwareMap.get(BNO055IMU.class, "imu"));
+        scheduler = new CommandScheduler();
+        recording = isRecording() ? new GamepadRecording() : null;
+
+        scheduler.register(driveSystem, Command.run(this::drive, driveSystem));
+        scheduler.whenPressed(() -> gamepad1.back,
+                Command.instant(() -> driveInput.setFieldCentric(!driveInput.isFieldCentric())));
+
+        scheduler.register(intakeSystem, Command.run(intakeSystem::stop, intakeSystem));
+        scheduler.whileHeld(() -> gamepad1.left_bumper, Command.run(() -> intakeSystem.unsuck(0.5), intakeSystem));
+        scheduler.whileHeld(() -> gamepad1.right_bumper, Command.run(() -> intakeSystem.suck(0.5), intakeSystem));
+
+        scheduler.register(latchSystem, null);
+        scheduler.whenPressed(() -> gamepad1.b, Command.instant(() -> latchSystem.toggle(LatchSystem.Latch.LEFT), latchSystem));
+        scheduler.whenPressed(() -> gamepad1.x, Command.instant(() -> latchSystem.toggle(LatchSystem.Latch.RIGHT), latchSystem));
+        scheduler.whenPressed(() -> gamepad1.y, Command.instant(latchSystem::bothUp, latchSystem));
+        scheduler.whenPressed(() -> gamepad1.a, Command.instant(latchSystem::bothDown, latchSystem));
+
+        // With no sequence running this just keeps the slider moving to its target
+        scheduler.register(armSystem, Command.run(armSystem::updateSequence, armSystem));
+        // Anything else on the arm interrupts a running sequence
+        scheduler.whenPressed(() -> gamepad2.x, new ArmSequence(armSystem::startMoveToHome));
+        scheduler.whenPressed(() -> gamepad2.y, new ArmSequence(armSystem::startMoveToCapstone));
+        scheduler.whenPressed(() -> gamepad2.right_stick_button,
+                new ArmSequence(() -> armSystem.startMoveOut(ArmSystem.Position.POSITION_WEST)));
+        // Also the way to let sequences run again after the slider stalls
+        scheduler.whenPressed(() -> gamepad2.back, Command.instant(() -> {
+            armSystem.cancelSequence();
+            armSystem.clearSliderStall();
+        }, armSystem));
+        scheduler.whenPressed(() -> gamepad2.dpad_left, Command.instant(armSystem::moveWest, armSystem));
+        scheduler.whenPressed(() -> gamepad2.dpad_right, Command.instant(armSystem::moveEast, armSystem));
+        scheduler.whenPressed(() -> gamepad2.dpad_up, Command.instant(armSystem::moveNorth, armSystem));
+        scheduler.whenPressed(() -> gamepad2.dpad_down, Command.instant(armSystem::moveSouth, armSystem));
+        scheduler.whenPressed(() -> gamepad2.a, Command.instant(armSystem::toggleGripper, armSystem));
+        scheduler.whenPressed(() -> gamepad2.right_bumper,
+                Command.instant(() -> armSystem.setSliderHeight(armSystem.mTargetHeight + 1), armSystem));
+        scheduler.whenPressed(() -> gamepad2.left_bumper,
+                Command.instant(() -> armSystem.setSliderHeight(armSystem.mTargetHeight - 1), armSystem));
+        /*
+        scheduler.whenPressed(() -> gamepad2.b, new ArmSequence(armSystem::startPlacing));
          */
-        if (mHoming) {
-            mHoming = !armSystem.moveToHome();
-        } else if (mCapstoning) {
-            mCapstoning = !armSystem.moveToCapstone();
-        } else if (mQueuing) {
-            mQueuing = !armSystem.moveOutToPosition(ArmSystem.Position.POSITION_WEST);
-        } else if (gamepad2.x) {
-            mHoming = !armSystem.moveToHome();
-        } else if (gamepad2.y) {
-            mCapstoning = !armSystem.moveToCapstone();
-        } else if (gamepad2.back) {
-            mQueuing = false;
-            mCapstoning = false;
-            mHoming = false;
-            // mPlacing = false;
-        } else if (gamepad2.right_stick_button) {
-            mQueuing = !armSystem.moveOutToPosition(ArmSystem.Position.POSITION_WEST);
-        }
+    }
 
-        if (gamepad2.dpad_left) {
-            armSystem.moveWest();
-        } else if (gamepad2.dpad_right) {
-            armSystem.moveEast();
-        } else if (gamepad2.dpad_up) {
-            armSystem.moveNorth();
-        } else if (gamepad2.dpad_down) {
-            armSystem.moveSouth();
+    public void loop(){
+        if (recording != null) {
+            recording.record(gamepad1, gamepad2);
         }
-
-        if (gamepad2.a && !gripped) {
-            armSystem.toggleGripper();
-            gripped = true;
-        } else if (!gamepad2.a) {
-            gripped = false;
+        scheduler.run();
+        telemetry.addData("Arm", armSystem.getSequenceState());
+        if (armSystem.isSliderStalled()) {
+            telemetry.addData("Slider", "Stalled, back to clear");
         }
+        telemetry.addData("Field centric", driveInput.isFieldCentric());
+    }
 
-        if (gamepad2.right_bumper && !up) {
-            armSystem.setSliderHeight(armSystem.mTargetHeight + 1);
-            up = true;
-        } else if (!gamepad2.right_bumper) {
-            up = false;
+    @Override
+    public void stop() {
+        scheduler.cancelAll();
+        if (recording != null && recording.getCount() > 0) {
+            try {
+                recording.save(RECORDING_FILE);
+                Log.d(TAG, "Saved " + recording.getCount() + " loops of input to " + RECORDING_FILE);
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't save input recording", e);
+            }
         }
+        super.stop();
+    }
 
-        if (gamepad2.left_bumper && !down) {
-            armSystem.setSliderHeight(armSystem.mTargetHeight - 1);
-            down = true;
-        } else if (!gamepad2.left_bumper) {
-            down = false;
-        }
-        //telemetry.addData("Target height: ", armSystem);
-        armSystem.runSliderToTarget();
+    // Whether to record the gamepads for replay
+    protected boolean isRecording() {
+        return true;
+    }
 
+    private void drive() {
+        // Only read the IMU when it is needed, it is a slow I2C transaction
+        double heading = driveInput.isFieldCentric() ? driveSystem.imuSystem.read().heading : 0;
+        driveInput.update(gamepad1.right_stick_x, gamepad1.left_stick_x, gamepad1.left_stick_y, heading);
+        driveSystem.slowDrive(gamepad1.left_trigger > 0.3f);
+        driveSystem.drive(driveInput.getTurn(), driveInput.getStrafe(), driveInput.getForward());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package org.firstinspires.ftc.teamcode.opmodes.teleop;
+
+import android.util.Log;
+
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.Gamepad;
+
+import org.firstinspires.ftc.teamcode.components.GamepadRecording;
+
+import java.io.IOException;
+
+/**
+ * Runs DriveTeleop on the gamepad input saved from the last real teleop run, on the recorded
+ * timeline: each loop gets the last record taken by that point in the original run, so slower
+ * loops skip records instead of slowing the replay down. Loop periods are logged at the end next
+ * to those of the original run, along with the arm sequence timings, so code changes can be
+ * compared on identical input.
+ * Keep a recording by copying teleop.rec off the robot; the next real teleop run replaces it.
+ */
+@TeleOp(name = "Replay Teleop", group = "Test")
+public class ReplayTeleop extends DriveTeleop {
+
+    private GamepadRecording playback;
+    private final Gamepad replayGamepad1 = new Gamepad();
+    private final Gamepad replayGamepad2 = new Gamepad();
+
+    private long mStartNanos;
+    private long mLastLoopNanos;
+    private int mLoops;
+    // Time between the starts of consecutive loops, and spent inside DriveTeleop's loop()
+    private long mTotalPeriodNanos;
+    private long mMaxPeriodNanos;
+    private long mTotalLoopNanos;
+
+    @Override
+    public void init() {
+        super.init();
+        try {
+            playback = GamepadRecording.load(RECORDING_FILE);
+            Log.d(TAG, "Loaded " + playback.getCount() + " loops of input");
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't load input recording", e);
+        }
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        mStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void loop() {
+        long start = System.nanoTime();
+        if (playback == null
+                || !playback.play((start - mStartNanos) / 1000000, replayGamepad1, replayGamepad2)) {
+            requestOpModeStop();
+            return;
+        }
+        // The SDK hands over fresh gamepads every loop, so swap ours in each time
+        gamepad1 = replayGamepad1;
+        gamepad2 = replayGamepad2;
+
+        if (mLoops > 0) {
+            long period = start - mLastLoopNanos;
+            mTotalPeriodNanos += period;
+            mMaxPeriodNanos = Math.max(mMaxPeriodNanos, period);
+        }
+        mLastLoopNanos = start;
+        super.loop();
+        mTotalLoopNanos += System.nanoTime() - start;
+        mLoops++;
+        telemetry.addData("Replay", "%d / %d", playback.getPlayed(), playback.getCount());
+    }
+
+    @Override
+    public void stop() {
+        if (mLoops > 1) {
+            Log.d(TAG, String.format("Replayed %d of %d records in %d loops", playback.getPlayed(),
+                    playback.getCount(), mLoops));
+            Log.d(TAG, String.format("Replay: avg %.2f ms, max %.2f ms between loops, avg %.2f ms in loop()",
+                    mTotalPeriodNanos / 1e6 / (mLoops - 1), mMaxPeriodNanos / 1e6,
+                    mTotalLoopNanos / 1e6 / mLoops));
+        }
+        if (playback != null && playback.getCount() > 1) {
+            Log.d(TAG, String.format("Recorded run: avg %.2f ms between loops",
+                    (double) playback.getTimeMs(playback.getCount() - 1) / (playback.getCount() - 1)));
+        }
+        super.stop();
+    }
+
+    @Override
+    protected boolean isRecording() {
+        return false;
+    }
+}
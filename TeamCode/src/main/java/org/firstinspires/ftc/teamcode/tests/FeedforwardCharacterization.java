@@ -0,0 +1,252 @@
+package org.firstinspires.ftc.teamcode.tests;
+
+import android.util.Log;
+
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorSimple;
+import com.qualcomm.robotcore.hardware.VoltageSensor;
+
+import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
+import org.firstinspires.ftc.teamcode.components.DriveSystem;
+import org.firstinspires.ftc.teamcode.components.Feedforward;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.EnumMap;
+
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.BACKRIGHT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTLEFT;
+import static org.firstinspires.ftc.teamcode.components.DriveSystem.MotorNames.FRONTRIGHT;
+
+/**
+ * Measures the feedforward constants of the drive (forward, strafe and rotate) and the slider.
+ * For each, press A with room to move: it ramps the voltage up slowly (quasistatic, so nearly
+ * all of it goes into kS and kV), rests, then applies a voltage step the other way (so
+ * acceleration shows up and the robot comes back). The constants are fit with
+ * Feedforward.fit, shown and logged, and every sample is written to a CSV in the robot data
+ * directory for a closer look off the robot.
+ *
+ * Drive units are millimeters of wheel travel (rotation too) and the slider's are encoder ticks.
+ */
+@TeleOp(name = "Feedforward Characterization", group = "Test")
+public class FeedforwardCharacterization extends OpMode {
+
+    private static final String TAG = "FeedforwardCharacterization";
+
+    private enum Axis {
+        FORWARD, STRAFE, ROTATE, SLIDER
+    }
+
+    private enum Phase {
+        WAITING, QUASISTATIC, REST, STEP, DONE
+    }
+
+    private static final double RAMP_RATE = 1.0;        // volts per second
+    private static final double QUASISTATIC_TIME = 4.0;
+    private static final double REST_TIME = 1.0;
+    private static final double STEP_VOLTS = 6.0;
+    private static final double STEP_TIME = 1.0;
+    private static final double SLIDER_RAMP_RATE = 2.0;
+    private static final double SLIDER_STEP_VOLTS = 4.0;
+    // Slider travel to stay within, in ticks from where it starts at the bottom
+    private static final int SLIDER_TOP = 2500;
+    private static final int SLIDER_BOTTOM = 200;
+    // Slower than this the friction isn't kinetic yet, so the samples are left out of the fit
+    private static final double MIN_DRIVE_VELOCITY = 20;
+    private static final double MIN_SLIDER_VELOCITY = 30;
+    // Samples either side for the central differences
+    private static final int DIFFERENCE_SPAN = 2;
+    private static final int MAX_SAMPLES = 5000;
+
+    private DriveSystem driveSystem;
+    private DcMotor slider;
+    private VoltageSensor voltageSensor;
+    private final int[] ticks = new int[DriveSystem.MotorNames.values().length];
+
+    private final double[] times = new double[MAX_SAMPLES];
+    private final double[] volts = new double[MAX_SAMPLES];
+    private final double[] positions = new double[MAX_SAMPLES];
+    private final double[] velocities = new double[MAX_SAMPLES];
+    private final double[] accelerations = new double[MAX_SAMPLES];
+    private int mCount;
+    // Index of the first sample of the step run
+    private int mStepStart;
+
+    private Axis mAxis = Axis.FORWARD;
+    private Phase mPhase = Phase.WAITING;
+    private long mPhaseStartNanos;
+    private long mStartNanos;
+    private final EnumMap<Axis, String> results = new EnumMap<>(Axis.class);
+
+    @Override
+    public void init() {
+        EnumMap<DriveSystem.MotorNames, DcMotor> driveMap = new EnumMap<>(DriveSystem.MotorNames.class);
+        for (DriveSystem.MotorNames name : DriveSystem.MotorNames.values()) {
+            driveMap.put(name, hardwareMap.get(DcMotor.class, name.toString()));
+        }
+        driveSystem = new DriveSystem(driveMap);
+        slider = hardwareMap.get(DcMotor.class, "SLIDER_MOTOR");
+        slider.setDirection(DcMotorSimple.Direction.REVERSE);
+        slider.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
+        slider.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+        slider.setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.BRAKE);
+        voltageSensor = hardwareMap.voltageSensor.iterator().next();
+    }
+
+    @Override
+    public void loop() {
+        long now = System.nanoTime();
+        double elapsed = (now - mPhaseStartNanos) / 1e9;
+        double position = readPosition();
+        double output = 0;
+        switch (mPhase) {
+            case WAITING:
+                telemetry.addData("Next", "Press A to characterize " + mAxis);
+                if (gamepad1.a) {
+                    mCount = 0;
+                    mStartNanos = now;
+                    newPhase(Phase.QUASISTATIC, now);
+                }
+                break;
+
+            case QUASISTATIC:
+                output = (mAxis == Axis.SLIDER ? SLIDER_RAMP_RATE : RAMP_RATE) * elapsed;
+                if (elapsed > QUASISTATIC_TIME || (mAxis == Axis.SLIDER && position > SLIDER_TOP)) {
+                    output = 0;
+                    newPhase(Phase.REST, now);
+                }
+                break;
+
+            case REST:
+                if (elapsed > REST_TIME) {
+                    mStepStart = mCount;
+                    newPhase(Phase.STEP, now);
+                }
+                break;
+
+            case STEP:
+                // Back the other way, so the robot ends up about where it started
+                output = -(mAxis == Axis.SLIDER ? SLIDER_STEP_VOLTS : STEP_VOLTS);
+                if (elapsed > STEP_TIME || (mAxis == Axis.SLIDER && position < SLIDER_BOTTOM)) {
+                    output = 0;
+                    setOutput(0);
+                    analyze();
+                    if (mAxis.ordinal() + 1 < Axis.values().length) {
+                        mAxis = Axis.values()[mAxis.ordinal() + 1];
+                        newPhase(Phase.WAITING, now);
+                    } else {
+                        newPhase(Phase.DONE, now);
+                    }
+                }
+                break;
+
+            case DONE:
+                telemetry.addData("Next", "Done");
+                break;
+        }
+
+        if ((mPhase == Phase.QUASISTATIC || mPhase == Phase.STEP) && mCount < MAX_SAMPLES) {
+            times[mCount] = (now - mStartNanos) / 1e9;
+            volts[mCount] = output;
+            positions[mCount] = position;
+            mCount++;
+        }
+        setOutput(output / voltageSensor.getVoltage());
+
+        telemetry.addData("Phase", mAxis + " " + mPhase);
+        for (Axis axis : results.keySet()) {
+            telemetry.addData(axis.toString(), results.get(axis));
+        }
+    }
+
+    @Override
+    public void stop() {
+        driveSystem.setMotorPower(0);
+        slider.setPower(0);
+    }
+
+    private void newPhase(Phase phase, long now) {
+        mPhase = phase;
+        mPhaseStartNanos = now;
+    }
+
+    private double readPosition() {
+        if (mAxis == Axis.SLIDER) {
+            return slider.getCurrentPosition();
+        }
+        driveSystem.getCumulativeTicks(ticks);
+        int fl = ticks[FRONTLEFT.ordinal()];
+        int fr = ticks[FRONTRIGHT.ordinal()];
+        int bl = ticks[BACKLEFT.ordinal()];
+        int br = ticks[BACKRIGHT.ordinal()];
+        // Same mixing as the drive: strafing right and turning clockwise are positive
+        switch (mAxis) {
+            case STRAFE:
+                return (fl - fr - bl + br) / (4 * DriveSystem.TICKS_IN_MM);
+            case ROTATE:
+                return (fl - fr + bl - br) / (4 * DriveSystem.TICKS_IN_MM);
+            default:
+                return (fl + fr + bl + br) / (4 * DriveSystem.TICKS_IN_MM);
+        }
+    }
+
+    private void setOutput(double power) {
+        switch (mAxis) {
+            case FORWARD:
+                driveSystem.drive(0, 0, -power);
+                break;
+            case STRAFE:
+                driveSystem.drive(0, power, 0);
+                break;
+            case ROTATE:
+                driveSystem.drive(power, 0, 0);
+                break;
+            case SLIDER:
+                slider.setPower(power);
+                break;
+        }
+    }
+
+    // Differentiates the log without the lag of a running estimate, fits it, and saves it
+    private void analyze() {
+        differentiate(positions, velocities);
+        differentiate(velocities, accelerations);
+        boolean isSlider = mAxis == Axis.SLIDER;
+        double minVelocity = isSlider ? MIN_SLIDER_VELOCITY : MIN_DRIVE_VELOCITY;
+        Feedforward feedforward = Feedforward.fit(volts, velocities, accelerations, mCount,
+                minVelocity, isSlider);
+        double rSquared = feedforward.rSquared(volts, velocities, accelerations, mCount, minVelocity);
+        String result = String.format("%s R^2 %.3f", feedforward, rSquared);
+        results.put(mAxis, result);
+        Log.d(TAG, mAxis + ": " + result + " from " + mCount + " samples");
+
+        File file = new File(AppUtil.ROBOT_DATA_DIR, "characterization-" + mAxis.toString().toLowerCase() + ".csv");
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.println("time,volts,position,velocity,acceleration");
+            for (int i = 0; i < mCount; i++) {
+                out.printf("%.4f,%.3f,%.2f,%.2f,%.2f%n", times[i], volts[i], positions[i],
+                        velocities[i], accelerations[i]);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't save " + file, e);
+        }
+    }
+
+    // Central differences over the samples logged so far, kept within the quasistatic or the
+    // step run since the rest between them isn't logged
+    private void differentiate(double[] values, double[] derivatives) {
+        for (int i = 0; i < mCount; i++) {
+            int first = i < mStepStart ? 0 : mStepStart;
+            int last = i < mStepStart ? mStepStart - 1 : mCount - 1;
+            int before = Math.max(first, i - DIFFERENCE_SPAN);
+            int after = Math.min(last, i + DIFFERENCE_SPAN);
+            double dt = times[after] - times[before];
+            derivatives[i] = dt > 0 ? (values[after] - values[before]) / dt : 0;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.firstinspires.ftc.teamcode.tests;
+
+import com.qualcomm.hardware.bosch.BNO055IMU;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.teamcode.components.IMUSystem;
+
+/**
+ * Captures the IMU's calibration so every OpMode after starts with it. Move the robot until
+ * the gyro, accelerometer and system report calibrated (3), then press A to save it.
+ * Only needs to be done again if the IMU or the hub is moved.
+ */
+@TeleOp(name = "IMU Calibration", group = "Test")
+public class IMUCalibration extends OpMode {
+
+    private IMUSystem imu;
+    private boolean mSaved;
+
+    @Override
+    public void init() {
+        imu = new IMUSystem(hardwareMap.get(BNO055IMU.class, "imu"));
+    }
+
+    @Override
+    public void loop() {
+        telemetry.addData("Status", imu.getCalibrationStatus());
+        telemetry.addData("Init", "%.0f ms, %s stored calibration", imu.getInitMs(),
+                imu.hasStoredCalibration() ? "with" : "without");
+        if (imu.isCalibrated()) {
+            telemetry.addData("Calibrated", "%.0f ms after init started", imu.getCalibratedMs());
+        }
+        if (gamepad1.a && !mSaved) {
+            imu.saveCalibration();
+            mSaved = true;
+        }
+        telemetry.addData("Next", mSaved ? "Saved to " + IMUSystem.getCalibrationFile()
+                : "Press A once calibrated to save");
+    }
+}
@@ -4,6 +4,8 @@ import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import com.qualcomm.robotcore.hardware.Servo;
 
+import org.firstinspires.ftc.teamcode.components.ArmKinematics;
+
 @TeleOp(name = "Servo Finder", group = "Test")
 public class ServoFinder extends OpMode {
 
@@ -11,6 +13,7 @@ public class ServoFinder extends OpMode {
     public Servo elbow;
     public Servo wrist;
     public double speed = 0.001;
+    private final double[] pose = new double[3];
 
     public void init() {
         pivot = hardwareMap.get(Servo.class, "PIVOT");
@@ -43,6 +46,9 @@ public class ServoFinder extends OpMode {
         telemetry.addData("Pivot: ", pivot.getPosition());
         telemetry.addData("Elbow: ", elbow.getPosition());
         telemetry.addData("Wrist: ", wrist.getPosition());
+        // Compare against the measured gripper position to check the ArmKinematics constants
+        ArmKinematics.forward(pivot.getPosition(), elbow.getPosition(), wrist.getPosition(), pose);
+        telemetry.addData("Gripper: ", "%.0f mm, %.0f mm, %.0f deg", pose[0], pose[1], Math.toDegrees(pose[2]));
         telemetry.update();
     }
 }
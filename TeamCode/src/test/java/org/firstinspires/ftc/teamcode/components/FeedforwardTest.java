@@ -0,0 +1,115 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Feedforward.fit recovers known constants from simulated characterization runs
+ */
+public class FeedforwardTest {
+
+    private static final double KS = 1.1;
+    private static final double KV = 0.004;
+    private static final double KA = 0.0008;
+    private static final double KG = 0.6;
+    private static final double MIN_VELOCITY = 20;
+
+    private final double[] volts = new double[2500];
+    private final double[] velocities = new double[2500];
+    private final double[] accelerations = new double[2500];
+    private int count;
+
+    // Ramps and steps in both directions like FeedforwardCharacterization, mm/s and mm/s^2,
+    // with the voltage the given constants call for plus Gaussian noise
+    private void simulate(Feedforward truth, double noise, Random random) {
+        count = 0;
+        for (int direction = -1; direction <= 1; direction += 2) {
+            // Quasistatic ramp: slow acceleration up to speed
+            for (int i = 0; i < 500; i++) {
+                add(truth, direction * i * 3.0, direction * 150.0 + 30 * Math.sin(i * 0.1), noise, random);
+            }
+            // Step: acceleration dying off as the motor reaches speed
+            for (int i = 0; i < 500; i++) {
+                double t = i * 0.01;
+                double velocity = 1400 * (1 - Math.exp(-t / 0.3));
+                double acceleration = 1400 / 0.3 * Math.exp(-t / 0.3);
+                add(truth, direction * velocity, direction * acceleration, noise, random);
+            }
+        }
+    }
+
+    private void add(Feedforward truth, double velocity, double acceleration, double noise, Random random) {
+        velocities[count] = velocity;
+        accelerations[count] = acceleration;
+        volts[count] = truth.calculate(velocity, acceleration) + random.nextGaussian() * noise;
+        count++;
+    }
+
+    @Test
+    public void exactDataIsFitExactly() {
+        Feedforward truth = new Feedforward(KS, KV, KA, 0);
+        simulate(truth, 0, new Random(1));
+        Feedforward fit = Feedforward.fit(volts, velocities, accelerations, count, MIN_VELOCITY, false);
+        assertEquals(KS, fit.kS, 1e-9);
+        assertEquals(KV, fit.kV, 1e-12);
+        assertEquals(KA, fit.kA, 1e-12);
+        assertEquals(0, fit.kG, 0);
+        assertEquals(1, fit.rSquared(volts, velocities, accelerations, count, MIN_VELOCITY), 1e-9);
+    }
+
+    @Test
+    public void noisyDataIsFitClosely() {
+        Feedforward truth = new Feedforward(KS, KV, KA, 0);
+        simulate(truth, 0.1, new Random(2));
+        Feedforward fit = Feedforward.fit(volts, velocities, accelerations, count, MIN_VELOCITY, false);
+        assertEquals(KS, fit.kS, 0.02);
+        assertEquals(KV, fit.kV, KV * 0.01);
+        assertEquals(KA, fit.kA, KA * 0.05);
+        assertTrue(fit.rSquared(volts, velocities, accelerations, count, MIN_VELOCITY) > 0.99);
+    }
+
+    @Test
+    public void gravityIsFitForALift() {
+        Feedforward truth = new Feedforward(KS, KV, KA, KG);
+        simulate(truth, 0, new Random(3));
+        Feedforward fit = Feedforward.fit(volts, velocities, accelerations, count, MIN_VELOCITY, true);
+        assertEquals(KS, fit.kS, 1e-9);
+        assertEquals(KV, fit.kV, 1e-12);
+        assertEquals(KA, fit.kA, 1e-12);
+        assertEquals(KG, fit.kG, 1e-9);
+    }
+
+    @Test
+    public void slowSamplesAreLeftOut() {
+        Feedforward truth = new Feedforward(KS, KV, KA, 0);
+        simulate(truth, 0, new Random(4));
+        // Stiction: volts applied while the mechanism hasn't broken free yet
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(velocities[i]) < MIN_VELOCITY) {
+                volts[i] = 3;
+            }
+        }
+        Feedforward fit = Feedforward.fit(volts, velocities, accelerations, count, MIN_VELOCITY, false);
+        assertEquals(KS, fit.kS, 1e-9);
+        assertEquals(KV, fit.kV, 1e-12);
+        assertEquals(KA, fit.kA, 1e-12);
+    }
+
+    @Test
+    public void onlyTheFirstCountSamplesAreUsed() {
+        Feedforward truth = new Feedforward(KS, KV, KA, 0);
+        simulate(truth, 0, new Random(5));
+        int used = count;
+        for (int i = used; i < volts.length; i++) {
+            volts[i] = 12;
+            velocities[i] = 500;
+            accelerations[i] = 0;
+        }
+        Feedforward fit = Feedforward.fit(volts, velocities, accelerations, used, MIN_VELOCITY, false);
+        assertEquals(KV, fit.kV, 1e-12);
+    }
+}
@@ -0,0 +1,164 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import com.qualcomm.robotcore.hardware.Gamepad;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks GamepadRecording writes and reads back its 20 byte records, and plays them on the
+ * recorded timeline
+ */
+public class GamepadRecordingTest {
+
+    private static final int RECORDS = 10;
+    // Sticks and triggers are stored as bytes, so come back within a step
+    private static final double STICK_TOLERANCE = 1.0 / 127;
+    private static final double TRIGGER_TOLERANCE = 1.0 / 255;
+
+    // A different pattern of inputs for every record
+    private static void fill(Gamepad gamepad, int i, int pad) {
+        int bits = i * 7 + pad * 3;
+        gamepad.a = (bits & 1) != 0;
+        gamepad.b = (bits & 2) != 0;
+        gamepad.x = (bits & 4) != 0;
+        gamepad.y = (bits & 8) != 0;
+        gamepad.dpad_up = (bits & 16) != 0;
+        gamepad.dpad_down = (bits & 1) == 0;
+        gamepad.dpad_left = (bits & 2) == 0;
+        gamepad.dpad_right = (bits & 4) == 0;
+        gamepad.left_bumper = (bits & 8) == 0;
+        gamepad.right_bumper = (bits & 16) == 0;
+        gamepad.left_stick_button = i % 2 == 0;
+        gamepad.right_stick_button = i % 3 == 0;
+        gamepad.back = i % 4 == 0;
+        gamepad.start = i % 5 == 0;
+        gamepad.guide = pad == 2;
+        gamepad.left_stick_x = -1 + 0.2f * i;
+        gamepad.left_stick_y = 1 - 0.2f * i;
+        gamepad.right_stick_x = 0.1f * i * (pad == 1 ? 1 : -1);
+        gamepad.right_stick_y = (float) Math.sin(i);
+        gamepad.left_trigger = 0.1f * i;
+        gamepad.right_trigger = 1 - 0.1f * i;
+    }
+
+    private static void assertGamepad(Gamepad expected, Gamepad actual) {
+        assertTrue(expected.a == actual.a && expected.b == actual.b && expected.x == actual.x
+                && expected.y == actual.y);
+        assertTrue(expected.dpad_up == actual.dpad_up && expected.dpad_down == actual.dpad_down
+                && expected.dpad_left == actual.dpad_left && expected.dpad_right == actual.dpad_right);
+        assertTrue(expected.left_bumper == actual.left_bumper && expected.right_bumper == actual.right_bumper);
+        assertTrue(expected.left_stick_button == actual.left_stick_button
+                && expected.right_stick_button == actual.right_stick_button);
+        assertTrue(expected.back == actual.back && expected.start == actual.start
+                && expected.guide == actual.guide);
+        assertEquals(expected.left_stick_x, actual.left_stick_x, STICK_TOLERANCE);
+        assertEquals(expected.left_stick_y, actual.left_stick_y, STICK_TOLERANCE);
+        assertEquals(expected.right_stick_x, actual.right_stick_x, STICK_TOLERANCE);
+        assertEquals(expected.right_stick_y, actual.right_stick_y, STICK_TOLERANCE);
+        assertEquals(expected.left_trigger, actual.left_trigger, TRIGGER_TOLERANCE);
+        assertEquals(expected.right_trigger, actual.right_trigger, TRIGGER_TOLERANCE);
+    }
+
+    // Records RECORDS loops a few milliseconds apart, so every record has its own timestamp
+    private static File recordAndSave() throws Exception {
+        GamepadRecording recording = new GamepadRecording();
+        Gamepad gamepad1 = new Gamepad();
+        Gamepad gamepad2 = new Gamepad();
+        for (int i = 0; i < RECORDS; i++) {
+            fill(gamepad1, i, 1);
+            fill(gamepad2, i, 2);
+            assertTrue(recording.record(gamepad1, gamepad2));
+            Thread.sleep(3);
+        }
+        File file = File.createTempFile("gamepad", ".rec");
+        file.deleteOnExit();
+        recording.save(file);
+        return file;
+    }
+
+    @Test
+    public void recordsSurviveSaveAndLoad() throws Exception {
+        File file = recordAndSave();
+        // 8 byte header, then 20 bytes a record
+        assertEquals(8 + 20 * RECORDS, file.length(), 0);
+        GamepadRecording loaded = GamepadRecording.load(file);
+        assertEquals(RECORDS, loaded.getCount(), 0);
+        assertEquals(0, loaded.getTimeMs(0), 0);
+
+        Gamepad expected1 = new Gamepad();
+        Gamepad expected2 = new Gamepad();
+        Gamepad played1 = new Gamepad();
+        Gamepad played2 = new Gamepad();
+        for (int i = 0; i < RECORDS; i++) {
+            if (i > 0) {
+                assertTrue(loaded.getTimeMs(i) > loaded.getTimeMs(i - 1));
+            }
+            assertTrue(loaded.play(loaded.getTimeMs(i), played1, played2));
+            assertEquals(i + 1, loaded.getPlayed(), 0);
+            fill(expected1, i, 1);
+            fill(expected2, i, 2);
+            assertGamepad(expected1, played1);
+            assertGamepad(expected2, played2);
+        }
+        assertFalse(loaded.play(Long.MAX_VALUE, played1, played2));
+    }
+
+    @Test
+    public void playSkipsToTheLatestRecordDue() throws Exception {
+        GamepadRecording loaded = GamepadRecording.load(recordAndSave());
+        Gamepad played1 = new Gamepad();
+        Gamepad played2 = new Gamepad();
+        Gamepad expected1 = new Gamepad();
+        Gamepad expected2 = new Gamepad();
+
+        // Halfway between records 5 and 6: records 0 to 5 are due, only 5 is applied
+        assertTrue(loaded.play((loaded.getTimeMs(5) + loaded.getTimeMs(6)) / 2, played1, played2));
+        assertEquals(6, loaded.getPlayed(), 0);
+        fill(expected1, 5, 1);
+        fill(expected2, 5, 2);
+        assertGamepad(expected1, played1);
+        assertGamepad(expected2, played2);
+
+        // Nothing new due yet: the gamepads are left alone
+        played1.a = !played1.a;
+        assertTrue(loaded.play(loaded.getTimeMs(5), played1, played2));
+        assertEquals(6, loaded.getPlayed(), 0);
+        assertTrue(played1.a != expected1.a);
+
+        // Long after the end the last record is applied, then playback ends
+        assertTrue(loaded.play(Long.MAX_VALUE, played1, played2));
+        fill(expected1, RECORDS - 1, 1);
+        fill(expected2, RECORDS - 1, 2);
+        assertGamepad(expected1, played1);
+        assertGamepad(expected2, played2);
+        assertFalse(loaded.play(Long.MAX_VALUE, played1, played2));
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsOtherFiles() throws Exception {
+        File file = File.createTempFile("gamepad", ".rec");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("not a recording".getBytes("UTF-8"));
+        }
+        GamepadRecording.load(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsTruncatedRecordings() throws Exception {
+        File file = recordAndSave();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(file.length() - 10);
+        }
+        GamepadRecording.load(file);
+    }
+}
@@ -0,0 +1,83 @@
+package org.firstinspires.ftc.teamcode.components;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks IMUSystem.predictHeading against simulated turns
+ */
+public class IMUSystemTest {
+
+    private static final double TOLERANCE = 1e-6;
+    private static final long MS = 1000000;
+
+    private static IMUReading reading(long nanos, double heading, double headingRate) {
+        IMUReading reading = new IMUReading();
+        reading.nanos = nanos;
+        reading.heading = heading;
+        reading.headingRate = headingRate;
+        return reading;
+    }
+
+    // Wraps into -180 to 180 like AngleUnit.DEGREES.normalize
+    private static double wrap(double degrees) {
+        while (degrees >= 180) {
+            degrees -= 360;
+        }
+        while (degrees < -180) {
+            degrees += 360;
+        }
+        return degrees;
+    }
+
+    @Test
+    public void constantRateTurnIsPredictedExactly() {
+        double rate = 360;
+        // Readings every 20 ms through two full turns, the controller acting 15 ms after each
+        for (long t = 0; t < 2000 * MS; t += 20 * MS) {
+            IMUReading reading = reading(t, wrap(rate * t / 1e9), rate);
+            long control = t + 15 * MS;
+            double truth = wrap(rate * control / 1e9);
+            double predicted = IMUSystem.predictHeading(reading, control);
+            assertEquals(0, wrap(truth - predicted), TOLERANCE);
+            // Without extrapolation the reading is 5.4 degrees behind
+            assertTrue(Math.abs(wrap(truth - reading.heading)) > 5);
+        }
+    }
+
+    @Test
+    public void stillRobotKeepsItsHeading() {
+        IMUReading reading = reading(0, 42, 0);
+        assertEquals(42, IMUSystem.predictHeading(reading, 30 * MS), TOLERANCE);
+    }
+
+    @Test
+    public void extrapolationIsClampedAfterTheReading() {
+        IMUReading reading = reading(1000 * MS, 10, 100);
+        // 200 ms old, but only 50 ms of the turn rate is applied
+        assertEquals(10 + 100 * IMUSystem.MAX_EXTRAPOLATION_NANOS / 1e9,
+                IMUSystem.predictHeading(reading, 1200 * MS), TOLERANCE);
+        assertEquals(15, IMUSystem.predictHeading(reading, 1050 * MS), TOLERANCE);
+    }
+
+    @Test
+    public void extrapolationIsClampedBeforeTheReading() {
+        IMUReading reading = reading(1000 * MS, 10, 100);
+        assertEquals(5, IMUSystem.predictHeading(reading, 800 * MS), TOLERANCE);
+        assertEquals(8, IMUSystem.predictHeading(reading, 980 * MS), TOLERANCE);
+    }
+
+    @Test
+    public void clockwiseTurnWrapsPast180() {
+        IMUReading reading = reading(0, 179, 100);
+        assertEquals(-179, IMUSystem.predictHeading(reading, 20 * MS), TOLERANCE);
+    }
+
+    @Test
+    public void counterClockwiseTurnWrapsPastMinus180() {
+        IMUReading reading = reading(0, -179, -100);
+        assertEquals(179, IMUSystem.predictHeading(reading, 20 * MS), TOLERANCE);
+    }
+}